@@ -0,0 +1,31 @@
+import benchmark.ByteArrayBenchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 字节数组拆分与合并基准测试的被测对象
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/17 11:05
+ */
+public class ByteArrayTarget implements ByteArrayBenchmark.Target {
+    private final byte[] file;
+    private final byte[] segment = new byte[UDPCodec.DEFAULT_SEGMENT_SIZE];
+
+    public ByteArrayTarget(int length) {
+        file = new byte[length];
+        ThreadLocalRandom.current().nextBytes(file);
+        ThreadLocalRandom.current().nextBytes(segment);
+    }
+
+    @Override
+    public Object splitBytes() {
+        return UDPutils.splitBytes(file, UDPCodec.DEFAULT_SEGMENT_SIZE);
+    }
+
+    @Override
+    public Object joinByteArray() {
+        return UDPutils.joinByteArray(file, segment);
+    }
+}
@@ -0,0 +1,45 @@
+import benchmark.ChecksumBenchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 校验和基准测试的被测对象
+ * 整个数据报放在堆内缓冲区中，与 Server 的接收缓冲区相同；分开存放的报头与数据区放在直接缓冲区中，与 Client 的发送窗口相同
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/17 10:50
+ */
+public class ChecksumTarget implements ChecksumBenchmark.Target {
+    private final ByteBuffer packet;
+    private final ByteBuffer header;
+    private final ByteBuffer data;
+
+    public ChecksumTarget(int payload) {
+        byte[] bytes = new byte[payload];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        UDP udp = new UDP(1111, 2222, 1000, 0, 0, 64, bytes);
+        udp.setConnection_Id(0x12345678);
+        packet = ByteBuffer.wrap(UDPCodec.encode(udp));
+        header = ByteBuffer.allocateDirect(UDPCodec.HEADER_LENGTH);
+        header.put(packet.array(), 0, UDPCodec.HEADER_LENGTH).flip();
+        data = ByteBuffer.allocateDirect(payload);
+        data.put(bytes).flip();
+    }
+
+    @Override
+    public int getChecksum() {
+        return UDPutils.getChecksum(packet);
+    }
+
+    @Override
+    public int getGatherChecksum() {
+        return UDPutils.getChecksum(header, data);
+    }
+
+    @Override
+    public boolean compareChecksum() {
+        return UDPutils.compareChecksum(packet);
+    }
+}
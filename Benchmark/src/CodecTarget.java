@@ -0,0 +1,58 @@
+import benchmark.CodecBenchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 编解码基准测试的被测对象，数据包与缓冲区在创建时准备好，测量时复用
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/17 10:35
+ */
+public class CodecTarget implements CodecBenchmark.Target {
+    private final UDP udp;
+    /**
+     * 编码的目标缓冲区
+     **/
+    private final ByteBuffer output = ByteBuffer.allocate(UDPCodec.MAX_PACKET_LENGTH);
+    /**
+     * 已编码的数据报，解码时读取
+     **/
+    private final ByteBuffer encoded;
+    /**
+     * 只解码报头时复用的数据包
+     **/
+    private final UDP header = new UDP();
+
+    public CodecTarget(int payload) {
+        byte[] data = null;
+        if (payload > 0) {
+            data = new byte[payload];
+            ThreadLocalRandom.current().nextBytes(data);
+        }
+        udp = new UDP(1111, 2222, 1000, 2000, UDP.FLAG_ACK, 64, data);
+        udp.setConnection_Id(0x12345678);
+        udp.setTimestamp(RttEstimator.timestamp());
+        encoded = ByteBuffer.wrap(UDPCodec.encode(udp));
+    }
+
+    @Override
+    public Object encode() {
+        output.clear();
+        UDPCodec.encode(udp, output);
+        return output;
+    }
+
+    @Override
+    public Object decode() {
+        encoded.clear();
+        return UDPCodec.decode(encoded);
+    }
+
+    @Override
+    public Object decodeHeader() {
+        encoded.clear();
+        return UDPCodec.decodeHeader(encoded, header);
+    }
+}
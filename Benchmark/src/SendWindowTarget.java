@@ -0,0 +1,183 @@
+import benchmark.SendWindowBenchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * 发送窗口基准测试的被测对象，模拟 Client.sendFile2 中收到ACK后的处理，时间每处理一个ACK前进 1 微秒
+ * 文件为长度足够的空文件，读入分块不产生 I/O，seq 在一次测量内不会回绕
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/17 11:20
+ */
+public class SendWindowTarget implements SendWindowBenchmark.Target {
+    /**
+     * 快速重传阈值与模拟的RTO，微秒
+     **/
+    private static final int DUP_THRESHOLD = 3;
+    private static final long RTO = 200_000;
+
+    private final int windowSize;
+    private final SendWindow window;
+    private final TimerWheel<SendWindow.Segment> timers = new TimerWheel<>(1000, 1024, 0);
+    private final ArrayDeque<SendWindow.Segment> lost = new ArrayDeque<>();
+    private final UDP ackUdp = new UDP();
+    /**
+     * 缺口恢复时下一个ACK的选择确认块右边界，每个ACK多覆盖一个分块
+     **/
+    private int sackEnd;
+    private long now;
+
+    public SendWindowTarget(int windowSize) throws IOException {
+        this.windowSize = windowSize;
+        int segmentSize = UDPCodec.DEFAULT_SEGMENT_SIZE;
+        window = new SendWindow(new EmptyFileChannel(), (long) Integer.MAX_VALUE * segmentSize, 0, windowSize, segmentSize, 1111, 2222, 1);
+        // 先发满整个窗口
+        window.fill();
+        while (window.hasUnsent(windowSize)) {
+            send(window.pollUnsent(windowSize));
+        }
+    }
+
+    @Override
+    public int cumulativeAck() throws IOException {
+        ackUdp.clearSack();
+        return onAck((int) window.getHead() + 1);
+    }
+
+    @Override
+    public int selectiveAck() throws IOException {
+        int head = (int) window.getHead();
+        ackUdp.clearSack();
+        if (sackEnd - head <= 1) {
+            // 新窗口的第一个分块即缺口，从它之上的第一个分块开始逐个到达
+            sackEnd = head + 2;
+        }
+        if (sackEnd > window.getNext()) {
+            // 缺口之上的分块已全部到达，缺口处重传的分块随后到达，一次确认整个窗口
+            return onAck((int) window.getNext());
+        }
+        ackUdp.addSack(head + 1, sackEnd++);
+        int acked = onAck(head);
+        window.detectLost(DUP_THRESHOLD, false, lost);
+        lost.clear();
+        return acked;
+    }
+
+    /**
+     * 与 Client 收到ACK时相同：确认分块并取消定时器，右移对端窗口，读入并发出新分块
+     */
+    private int onAck(int ack) throws IOException {
+        now++;
+        ackUdp.setAck(ack);
+        int acked = window.acknowledge(ackUdp, timers);
+        window.updateWindow(ack, windowSize);
+        window.fill();
+        while (window.hasUnsent(windowSize)) {
+            send(window.pollUnsent(windowSize));
+        }
+        return acked;
+    }
+
+    private void send(SendWindow.Segment segment) {
+        timers.schedule(segment, now + RTO);
+        segment.setSent(true);
+    }
+
+    /**
+     * 读取时只把缓冲区标记为已读满的文件通道，其余操作均不支持
+     */
+    private static class EmptyFileChannel extends FileChannel {
+        @Override
+        public int read(ByteBuffer dst, long position) {
+            int length = dst.remaining();
+            dst.position(dst.limit());
+            return length;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            return read(dst, 0);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            return 0;
+        }
+
+        @Override
+        public FileChannel position(long newPosition) {
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void force(boolean metaData) {
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() {
+        }
+    }
+}
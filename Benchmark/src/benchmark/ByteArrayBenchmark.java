@@ -0,0 +1,59 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 字节数组拆分与合并的基准测试，早期停等方式的发送与接收以此分块与拼接文件，作为滑动窗口流式读写的对照
+ * 拆分按以太网MTU下的分块大小切分整个文件；合并在已收到的数据之后追加一个分块，拼接整个文件的耗时随文件大小平方增长
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/17 11:05
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ByteArrayBenchmark {
+    /**
+     * 由默认包中的 ByteArrayTarget 实现
+     **/
+    public interface Target {
+        /**
+         * 将文件拆分为分块，即 UDPutils.splitBytes
+         */
+        Object splitBytes();
+
+        /**
+         * 在已收到的数据之后追加一个分块，即 UDPutils.joinByteArray
+         */
+        Object joinByteArray();
+    }
+
+    /**
+     * 文件大小，即已收到的数据大小
+     **/
+    @Param({"1436", "65536", "1048576"})
+    public int length;
+
+    private Target target;
+
+    @Setup
+    public void setup() {
+        target = Targets.create(Target.class, "ByteArrayTarget", length);
+    }
+
+    @Benchmark
+    public Object splitBytes() {
+        return target.splitBytes();
+    }
+
+    @Benchmark
+    public Object joinByteArray() {
+        return target.joinByteArray();
+    }
+}
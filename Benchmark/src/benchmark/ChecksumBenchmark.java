@@ -0,0 +1,66 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验和的基准测试，校验和为覆盖报头与数据区的 CRC32C，每个线程复用一个实例
+ * 配合 -prof gc 可确认计算与校验都不再分配对象
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/17 10:50
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ChecksumBenchmark {
+    /**
+     * 由默认包中的 ChecksumTarget 实现
+     **/
+    public interface Target {
+        /**
+         * 计算整个数据报的校验和，即 UDPutils.getChecksum
+         */
+        int getChecksum();
+
+        /**
+         * 计算报头与数据区分开存放的数据报的校验和，Client 发送分块时使用
+         */
+        int getGatherChecksum();
+
+        /**
+         * 校验接收到的数据报，即 UDPutils.compareChecksum
+         */
+        boolean compareChecksum();
+    }
+
+    @Param({"64", "1436", "8936"})
+    public int payload;
+
+    private Target target;
+
+    @Setup
+    public void setup() {
+        target = Targets.create(Target.class, "ChecksumTarget", payload);
+    }
+
+    @Benchmark
+    public int getChecksum() {
+        return target.getChecksum();
+    }
+
+    @Benchmark
+    public int getGatherChecksum() {
+        return target.getGatherChecksum();
+    }
+
+    @Benchmark
+    public boolean compareChecksum() {
+        return target.compareChecksum();
+    }
+}
@@ -0,0 +1,66 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据报编解码的基准测试，取代原先 objectToByte / byteToObject 的 Java 对象序列化
+ * 数据区长度依次为 纯控制报文、小报文、以太网MTU下的分块与巨型帧下的分块
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/17 10:35
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CodecBenchmark {
+    /**
+     * 由默认包中的 CodecTarget 实现
+     **/
+    public interface Target {
+        /**
+         * 将数据包编码写入复用的缓冲区，包括计算校验和
+         */
+        Object encode();
+
+        /**
+         * 解码为新的数据包，数据区拷贝为字节数组
+         */
+        Object decode();
+
+        /**
+         * 只解码报头到复用的数据包，不拷贝数据区
+         */
+        Object decodeHeader();
+    }
+
+    @Param({"0", "64", "1436", "8936"})
+    public int payload;
+
+    private Target target;
+
+    @Setup
+    public void setup() {
+        target = Targets.create(Target.class, "CodecTarget", payload);
+    }
+
+    @Benchmark
+    public Object encode() {
+        return target.encode();
+    }
+
+    @Benchmark
+    public Object decode() {
+        return target.decode();
+    }
+
+    @Benchmark
+    public Object decodeHeader() {
+        return target.decodeHeader();
+    }
+}
@@ -0,0 +1,62 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发送窗口与ACK处理的基准测试，每次操作处理一个ACK：更新窗口、取消重传定时器、读入并发出一个新分块
+ * 窗口始终保持满载，测得的是不同窗口大小下每个ACK的簿记开销，不含文件读取与 socket 发送
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/17 11:20
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SendWindowBenchmark {
+    /**
+     * 由默认包中的 SendWindowTarget 实现
+     **/
+    public interface Target {
+        /**
+         * 没有丢包，ACK 按序累计确认窗口头部的分块
+         *
+         * @return 新确认的分块个数
+         */
+        int cumulativeAck() throws IOException;
+
+        /**
+         * 窗口头部的分块丢失，其后的分块逐个到达：ACK 的累计确认停在缺口处，选择确认块每次多覆盖一个分块，并查找丢失的分块；
+         * 缺口之上的分块全部到达后缺口被补上，一次确认整个窗口
+         *
+         * @return 新确认的分块个数
+         */
+        int selectiveAck() throws IOException;
+    }
+
+    @Param({"64", "1024", "16384"})
+    public int windowSize;
+
+    private Target target;
+
+    @Setup
+    public void setup() {
+        target = Targets.create(Target.class, "SendWindowTarget", windowSize);
+    }
+
+    @Benchmark
+    public int cumulativeAck() throws IOException {
+        return target.cumulativeAck();
+    }
+
+    @Benchmark
+    public int selectiveAck() throws IOException {
+        return target.selectiveAck();
+    }
+}
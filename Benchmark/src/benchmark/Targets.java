@@ -0,0 +1,32 @@
+package benchmark;
+
+/**
+ * 创建被测对象
+ * JMH 要求基准测试类不在默认包中，而具名包无法引用默认包中的类，
+ * 因此每个基准测试声明一个 Target 接口，由默认包中的同名实现调用被测代码，这里按类名反射创建一次，
+ * 测量时只是一次单态的接口调用，会被 JIT 内联，不影响测得的结果
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/17 10:20
+ */
+final class Targets {
+    private Targets() {
+    }
+
+    /**
+     * 按类名创建默认包中的被测对象
+     *
+     * @param type      被测对象实现的接口
+     * @param className 默认包中的实现类名
+     * @param parameter 构造参数，即基准测试的 @Param
+     * @return 被测对象
+     */
+    static <T> T create(Class<T> type, String className, int parameter) {
+        try {
+            return type.cast(Class.forName(className).getConstructor(int.class).newInstance(parameter));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("无法创建被测对象 " + className, e);
+        }
+    }
+}
@@ -1,6 +1,14 @@
 import java.io.*;
 import java.net.*;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 客户端 负责发送数据
@@ -17,7 +25,7 @@ public class Client implements Runnable {
     /**
      * 源端口
      **/
-    private final String sourcePort;
+    private final int sourcePort;
     /**
      * 目的IP
      **/
@@ -25,11 +33,15 @@ public class Client implements Runnable {
     /**
      * 目的端口
      **/
-    private final String targetPort;
+    private final int targetPort;
     /**
      * 源文件路径
      **/
     private final File fileSource;
+    /**
+     * 连接标识，随机生成，与源地址一起让Server区分同一端口上的多个连接
+     **/
+    private final int connectionId = ThreadLocalRandom.current().nextInt();
     /**
      * seq序号
      **/
@@ -39,21 +51,93 @@ public class Client implements Runnable {
      **/
     private int ack;
     /**
-     * 窗口大小
+     * 窗口大小，握手时由Server告知
      **/
     private int windowSize;
+    /**
+     * Server 通告窗口的缩放位数，ACK 中的 Window_Size 左移该位数才是实际窗口
+     **/
+    private int windowShift;
     /**
      * Client状态 默认为CLOSED
      **/
     private String state = "CLOSED";
     /**
-     * UDP Socket
+     * UDP Channel，发送数据时使用聚集写
+     **/
+    DatagramChannel channel = null;
+    /**
+     * 等待数据报使用的 Selector，握手、探测路径MTU、发送文件与挥手期间 channel 为非阻塞模式，由其按最近的定时器限时等待
+     **/
+    private Selector selector;
+    /**
+     * 定时器，时间单位为微秒，tick 为 1ms
+     * 发送文件时为各分块的重传定时器，握手、探测与挥手时只有等待回复的 control 定时器
+     **/
+    private final TimerWheel<TimerWheel.Timer> timers = new TimerWheel<>(1000, 1024, System.nanoTime() / 1000);
+    private final TimerWheel.Timer control = new TimerWheel.Timer();
+    private final ArrayDeque<TimerWheel.Timer> expired = new ArrayDeque<>();
+    /**
+     * 握手与挥手等待回复的超时时间，微秒
+     **/
+    private static final long CONTROL_TIMEOUT = 4_000_000;
+    /**
+     * 一批最多收发的数据报个数
+     **/
+    private static final int BATCH_SIZE = 16;
+    /**
+     * 数据报缓冲池，接收ACK时使用
+     **/
+    private final BufferPool pool = new BufferPool(UDPCodec.MAX_PACKET_LENGTH, BATCH_SIZE, false);
+    /**
+     * 往返时延估计，握手时获得第一个样本，发送文件时据此计算重传超时
+     **/
+    private final RttEstimator rtt = new RttEstimator();
+    /**
+     * 快速重传阈值，缺口之上有 3 个数据报被确认，或收到 3 个重复ACK，即重传缺口处的数据报
+     **/
+    private static final int DUP_THRESHOLD = 3;
+    /**
+     * 拥塞控制算法，默认为 NewReno
+     **/
+    private CongestionControl congestion = new NewReno();
+    /**
+     * 并行传输时本连接负责的子流，为 null 时发送整个文件
+     **/
+    private SubFlow subFlow;
+    /**
+     * 每个连接的最大发送速率，字节/秒，0 表示只按拥塞控制定速
+     **/
+    private long maxRate;
+    /**
+     * 分块大小的上限，探测路径MTU时不超过该大小，默认恰好装入以太网MTU，本地链路支持巨型帧时可调大
+     **/
+    private int maxSegmentSize = UDPCodec.DEFAULT_SEGMENT_SIZE;
+    /**
+     * 握手后是否探测路径MTU，关闭时直接采用分块大小的上限
+     **/
+    private boolean mtuProbing = true;
+    /**
+     * 探测路径MTU后与Server确定的分块大小
+     **/
+    private int segmentSize = UDPCodec.DEFAULT_SEGMENT_SIZE;
+    /**
+     * 常见链路的MTU，依次为巨型帧、以太网与 PPPoE，减去IP、UDP与本协议的报头后作为候选的分块大小
      **/
-    DatagramSocket socket = null;
+    private static final int[] LINK_MTUS = {9000, 1500, 1492};
     /**
-     * 文件输出缓冲流
+     * 每个探测报文与探测结束报文最多发送的次数，以及等待确认的最短时间，毫秒
      **/
-    BufferedInputStream reader = null;
+    private static final int MAX_PROBES = 3;
+    private static final int MIN_PROBE_TIMEOUT = 200;
+    /**
+     * 发送定速，发送文件时创建
+     **/
+    private Pacer pacer;
+    /**
+     * 发送文件时待发出的数据报，等待ACK之前一起发出
+     **/
+    private SendBatch batch;
 
     private long now;
     private long start;
@@ -64,18 +148,17 @@ public class Client implements Runnable {
         try {
             start = System.currentTimeMillis();
             if (shakeHands()) {
-                if (sendFile2()) {
+                if (probePathMtu() && sendFile2()) {
                     now = System.currentTimeMillis();
                     time = now - start;
                     System.out.println("耗时：" + time + "ms");
-                    // 等待10s，让服务器将数据写入文件中，再与服务器开始断开连接,可以根据要传输文件大小，适当更换
-                    Thread.sleep(10000);
+                    // 全部数据报被确认时Server已收齐文件并写入，立即开始断开连接
                     if (waveHands()) {
                         System.out.println(state + " 与" + UDPutils.getStringIp(targetIp) + "断开成功！");
                     }
                 }
             }
-        } catch (IOException | ClassNotFoundException | InterruptedException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -92,29 +175,74 @@ public class Client implements Runnable {
      */
     public Client(String sourceIp, String sourcePort, String targetIp, String targetPort, String fileSource) throws UnknownHostException {
         this.sourceIp = InetAddress.getByName(String.valueOf(sourceIp));
-        this.sourcePort = sourcePort;
+        this.sourcePort = Integer.parseInt(sourcePort);
         this.targetIp = InetAddress.getByName(targetIp);
-        this.targetPort = targetPort;
+        this.targetPort = Integer.parseInt(targetPort);
         this.fileSource = new File(fileSource);
         try {
-            socket = new DatagramSocket(Integer.parseInt(sourcePort));
-            reader = new BufferedInputStream(new FileInputStream(fileSource));
-        } catch (SocketException | FileNotFoundException e) {
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(this.sourcePort));
+        } catch (IOException e) {
             e.printStackTrace();
-            socket.close();
         }
     }
 
+    /**
+     * 设置拥塞控制算法，需在发送文件之前设置
+     *
+     * @param congestion 拥塞控制算法
+     */
+    public void setCongestionControl(CongestionControl congestion) {
+        this.congestion = congestion;
+    }
+
+    /**
+     * 设置本连接的最大发送速率，需在发送文件之前设置
+     *
+     * @param maxRate 最大发送速率，字节/秒，0 表示不限
+     */
+    public void setMaxRate(long maxRate) {
+        this.maxRate = maxRate;
+    }
+
+    /**
+     * 设置分块大小的上限，需在握手之前设置
+     * 默认的上限恰好装入以太网MTU，在支持巨型帧的本地链路上可调大到 UDPCodec.MAX_DATA_LENGTH
+     *
+     * @param maxSegmentSize 分块大小的上限，字节
+     */
+    public void setMaxSegmentSize(int maxSegmentSize) {
+        this.maxSegmentSize = Math.max(1, Math.min(maxSegmentSize, UDPCodec.MAX_DATA_LENGTH));
+    }
+
+    /**
+     * 设置握手后是否探测路径MTU，关闭后直接采用分块大小的上限
+     *
+     * @param mtuProbing 是否探测路径MTU
+     */
+    public void setMtuProbing(boolean mtuProbing) {
+        this.mtuProbing = mtuProbing;
+    }
+
+    /**
+     * 设置本连接只发送文件中的一段，作为并行传输的一个子流，需在握手之前设置
+     *
+     * @param subFlow 子流信息
+     */
+    public void setSubFlow(SubFlow subFlow) {
+        this.subFlow = subFlow;
+    }
+
     /**
      * Client开始发起与服务器的握手操作
      *
      * @return 握手成功返回 true 失败返回 false
      * @throws IOException 握手异常
-     * @throws ClassNotFoundException 对象序列化异常
      */
-    public boolean shakeHands() throws IOException, ClassNotFoundException {
+    public boolean shakeHands() throws IOException {
         int shakeHandTimes = 0;
         UDP shakeHandsUdp;
+        ByteBuffer buffer = ByteBuffer.allocate(512);
         while (true) {
             // 设置最大请求次数，此处设为3次，握手请求超过三次即握手失败
             if (3 == shakeHandTimes) {
@@ -126,47 +254,43 @@ public class Client implements Runnable {
                     // 向服务器发起握手请求
                     System.out.println("开始与 " + UDPutils.getStringIp(targetIp) + " 建立连接：");
 
-                    // 发送SYN = 1，seq = x的请求
+                    // 发送SYN = 1，seq = x的请求，数据区携带文件大小，供Server预分配文件，并行传输时再附上子流信息
                     seqNum = UDPutils.getSeqNum();
-                    shakeHandsUdp = new UDP(sourcePort, targetPort, Integer.toString(seqNum), "0", "0", "1", "0", "0", null);
-                    shakeHandsUdp.setSource_IP(UDPutils.getStringIp(sourceIp));
-                    byte[] datas = UDPutils.objectToByte(shakeHandsUdp);
-                    DatagramPacket sendUdpPacket = new DatagramPacket(datas, 0, datas.length, targetIp, Integer.parseInt(targetPort));
+                    byte[] synData = subFlow != null ? subFlow.toSynData() : UDPutils.longToBytes(fileSource.length());
+                    shakeHandsUdp = new UDP(sourcePort, targetPort, seqNum, 0, UDP.FLAG_SYN, 0, synData);
+                    shakeHandsUdp.setConnection_Id(connectionId);
+                    shakeHandsUdp.setTimestamp(RttEstimator.timestamp());
                     System.out.println(state + "  发送：SYN=1，seq=" + seqNum);
-                    socket.send(sendUdpPacket);
+                    send(shakeHandsUdp);
 
                     // 发送该请求后，Client进入SYN-SENT状态
                     state = "SYN-SENT";
 
                 case "SYN-SENT":
                     // 等待服务端对请求的响应,设置等待时间4s，超过等待时间，就立即重新发送
-                    byte[] rec = new byte[512];
-                    DatagramPacket receiveUdpPacket = new DatagramPacket(rec, 0, rec.length);
-                    socket.setSoTimeout(4000);
-                    try {
-                        socket.receive(receiveUdpPacket);
-                    } catch (SocketTimeoutException e) {
+                    shakeHandsUdp = receiveControl(buffer, System.nanoTime() / 1000 + CONTROL_TIMEOUT);
+                    if (shakeHandsUdp == null) {
                         System.out.println(state + "  等待ACK超时，重新请求。。。\n");
                         state = "CLOSED";
                         shakeHandTimes++;
                         continue;
                     }
 
-                    // 判断接收是否发生了错误，如果出现错误，即重新发起握手请求
-                    if (UDPutils.byteToObject(rec) != null) {
-                        shakeHandsUdp = (UDP) UDPutils.byteToObject(rec);
-                    } else {
-                        System.out.println("接收发生错误，连接失败！");
-                        state = "CLOSED";
-                        continue;
-                    }
-
                     // 收到服务器的响应，判断各项数值是否合理,如果合理，接收服务器设置的窗口值，并且向服务器给出确认
-                    ack = Integer.parseInt(shakeHandsUdp.getSequence_Number());
+                    ack = shakeHandsUdp.getSequence_Number();
                     int seqTemp = seqNum + 1;
-                    if ("1".equals(shakeHandsUdp.getSyn()) && "1".equals(shakeHandsUdp.getACK()) && seqTemp == Integer.parseInt(shakeHandsUdp.getAck())) {
+                    if (shakeHandsUdp.isSyn() && shakeHandsUdp.isACK() && seqTemp == shakeHandsUdp.getAck()) {
                         System.out.println(state + "  接收：SYN=1，ACK=1，seq=" + ack + "，ack=" + seqTemp + "  request successful");
-                        windowSize = Integer.parseInt(shakeHandsUdp.getWindow_Size());
+                        // 数据区依次为 延迟确认的最长等待时间 8字节 与 窗口缩放位数 1字节
+                        byte[] options = shakeHandsUdp.getData();
+                        windowShift = options != null && options.length > Long.BYTES ? options[Long.BYTES] : 0;
+                        windowSize = shakeHandsUdp.getWindow_Size() << windowShift;
+                        // Server 延迟确认时，ACK最多推迟其告知的时长，计入RTO以免误判超时
+                        long maxAckDelay = UDPutils.bytesToLong(options);
+                        if (maxAckDelay > 0) {
+                            rtt.setMaxAckDelay(maxAckDelay * 1000);
+                        }
+                        rtt.sample(RttEstimator.elapsed(shakeHandsUdp.getTimestamp_Echo()));
                         seqNum++;
                         ack++;
                     } else {
@@ -176,11 +300,10 @@ public class Client implements Runnable {
                     }
 
                     // 向服务器给出确认，和服务器进入 ESTAB-LISHEN 状态双方开始收发文件
-                    shakeHandsUdp = new UDP(sourcePort, targetPort, Integer.toString(seqNum), "1", Integer.toString(ack), "0", "0", Integer.toString(windowSize), null);
-                    byte[] dataTwo = UDPutils.objectToByte(shakeHandsUdp);
-                    DatagramPacket sendPacket2 = new DatagramPacket(dataTwo, 0, dataTwo.length, targetIp, Integer.parseInt(targetPort));
+                    shakeHandsUdp = new UDP(sourcePort, targetPort, seqNum, ack, UDP.FLAG_ACK, Math.min(windowSize, 0xFFFF), null);
+                    shakeHandsUdp.setConnection_Id(connectionId);
                     System.out.println(state + "  发送：ACK=1，seq=" + seqNum + "，ack=" + ack);
-                    socket.send(sendPacket2);
+                    send(shakeHandsUdp);
                     seqNum++;
                     state = "ESTAB-LISHEN";
 
@@ -196,189 +319,372 @@ public class Client implements Runnable {
     }
 
     /**
-     * Client 采用停等机制 开始向服务器发送文件
+     * 握手后探测路径MTU，确定分块大小
+     * 按 PLPMTUD 的做法由数据报本身探测：发送填充到各候选长度的探测报文，得到确认的最大长度即路径上不会被分片的最大数据报，
+     * 每个候选最多发送 MAX_PROBES 次，都未得到确认视为无法通过，全部失败时退回到任何路径都能通过的分块大小
+     * 探测期间设置不分片标志，JDK 不支持时只能保证不超过本机出口的MTU；探测结束后清除，路径MTU变小时数据报退化为分片而不是一直丢失
+     * 最后将选定的分块大小告知Server，Server确认后才开始发送文件，文件为空时无需确定分块大小
      *
-     * @return 成功返回true，反之返回false
+     * @return 分块大小确定返回 true，Server 无响应返回 false
+     * @throws IOException 探测异常
      */
-    public boolean sendFile1() {
-        UDP udp;
-        try {
-            reader = new BufferedInputStream(new FileInputStream(fileSource));
-            int fileLength = reader.available();
-            byte[] allData = new byte[fileLength];
-            int sizeOfRead = reader.read(allData, 0, fileLength);
-            int times = (fileLength / (2048 - 361)) + 1;
-            System.out.println("\n文件大小为：" + sizeOfRead + "bit");
-            System.out.println("文件将分为：" + times + " 个数据报进行发送。");
-
-            byte[][] temp = UDPutils.splitBytes(allData, 1687);
-            for (int i = 0; i < times; i++) {
-                // 开始分块发送文件
-                byte[] dataTemp = temp[i];
-                udp = new UDP(sourcePort, targetPort, Integer.toString(seqNum), "0", "0", "0", "0", "4", dataTemp);
-                byte[] udpByte = UDPutils.objectToByte(udp);
-                DatagramPacket packet = new DatagramPacket(udpByte, 0, udpByte.length, targetIp, Integer.parseInt(targetPort));
-                int biaoZhi;
-                do {
-                    socket.send(packet);
-                    int j = i + 1;
-                    System.out.println(state + "  发送分块 " + j + " Seq = " + seqNum);
-                    // 等待每块文件的ACK
-                    biaoZhi = UDPutils.receiveAck(socket, seqNum, state);
-                } while (biaoZhi != 1);
-                seqNum++;
+    public boolean probePathMtu() throws IOException {
+        long length = subFlow != null ? subFlow.getLength() : fileSource.length();
+        if (length == 0) {
+            return true;
+        }
+        if (!channel.isConnected()) {
+            channel.connect(new InetSocketAddress(targetIp, targetPort));
+        }
+        int best = mtuProbing ? Math.min(maxSegmentSize, UDPCodec.BASE_SEGMENT_SIZE) : maxSegmentSize;
+        TreeSet<Integer> candidates = new TreeSet<>();
+        if (mtuProbing) {
+            boolean dontFragment = setDontFragment(true);
+            int overhead = (targetIp instanceof Inet6Address ? UDPCodec.IPV6_OVERHEAD : UDPCodec.IPV4_OVERHEAD) + UDPCodec.HEADER_LENGTH;
+            int limit = maxSegmentSize;
+            int mtu = localMtu();
+            if (!dontFragment && mtu > 0) {
+                limit = Math.min(limit, mtu - overhead);
             }
-            System.out.println("文件发送成功！！！");
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+            candidates.add(limit);
+            for (int linkMtu : LINK_MTUS) {
+                if (linkMtu - overhead < limit) {
+                    candidates.add(linkMtu - overhead);
+                }
+            }
+            candidates.headSet(best, true).clear();
+            System.out.println(state + "  开始探测路径MTU，候选分块大小 " + candidates.descendingSet() + (dontFragment ? "" : "，不支持设置不分片标志，本机MTU = " + mtu));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(UDPCodec.MAX_PACKET_LENGTH);
+        int timeout = Math.max(MIN_PROBE_TIMEOUT, rtt.getRtoMillis());
+        for (int round = 0; round < MAX_PROBES && !candidates.isEmpty() && candidates.last() > best; round++) {
+            // 只发送大于当前结果的候选，本机拒绝发送的长度直接放弃
+            for (Integer candidate : candidates.tailSet(best, false).toArray(new Integer[0])) {
+                UDP probe = new UDP(sourcePort, targetPort, seqNum, 0, UDP.FLAG_PROBE, 0, new byte[candidate]);
+                probe.setConnection_Id(connectionId);
+                probe.setTimestamp(RttEstimator.timestamp());
+                try {
+                    send(probe);
+                } catch (IOException e) {
+                    System.out.println(state + "  探测报文 " + probe.getLength() + " 字节无法发出：" + e.getMessage());
+                    candidates.remove(candidate);
+                }
+            }
+            // 等待确认，直到最大的候选得到确认或超时
+            long deadline = System.nanoTime() / 1000 + timeout * 1000L;
+            while (!candidates.isEmpty() && candidates.last() > best) {
+                UDP udp = receiveControl(buffer, deadline);
+                if (udp == null) {
+                    break;
+                }
+                if (!udp.isProbe() || !udp.isACK() || udp.isEof()) {
+                    continue;
+                }
+                int confirmed = udp.getAck() - UDPCodec.HEADER_LENGTH;
+                if (candidates.contains(confirmed) && confirmed > best) {
+                    best = confirmed;
+                    rtt.sample(RttEstimator.elapsed(udp.getTimestamp_Echo()));
+                    System.out.println(state + "  探测报文 " + udp.getAck() + " 字节得到确认");
+                }
+            }
+            timeout *= 2;
+        }
+        if (mtuProbing) {
+            setDontFragment(false);
         }
-        return true;
+
+        // 告知Server选定的分块大小，以Server确认的大小为准
+        timeout = Math.max(MIN_PROBE_TIMEOUT, rtt.getRtoMillis());
+        for (int i = 0; i < MAX_PROBES; i++) {
+            UDP done = new UDP(sourcePort, targetPort, seqNum, best, UDP.FLAG_PROBE | UDP.FLAG_EOF, 0, null);
+            done.setConnection_Id(connectionId);
+            done.setTimestamp(RttEstimator.timestamp());
+            System.out.println(state + "  探测结束，发送：分块大小 " + best + " 字节");
+            send(done);
+            long deadline = System.nanoTime() / 1000 + timeout * 1000L;
+            UDP udp;
+            while ((udp = receiveControl(buffer, deadline)) != null) {
+                if (udp.isProbe() && udp.isACK() && udp.isEof() && udp.getAck() > 0) {
+                    segmentSize = udp.getAck();
+                    System.out.println(state + "  接收：分块大小 " + segmentSize + " 字节，数据报长度 " + (UDPCodec.HEADER_LENGTH + segmentSize) + " 字节");
+                    return true;
+                }
+            }
+            System.out.println(state + "  等待探测结束的确认超时，重新发送。。。");
+            timeout *= 2;
+        }
+        System.out.println("\n与 " + UDPutils.getStringIp(targetIp) + " 确定分块大小失败！！！");
+        return false;
     }
 
     /**
-     * Client和Server采用滑动窗口方式发送文件 固定窗口大小为4
+     * 设置或清除 socket 的不分片标志，JDK 19 起由 jdk.net.ExtendedSocketOptions.IP_DONTFRAGMENT 提供
+     *
+     * @param on 是否设置
+     * @return 设置成功返回 true，JDK 或系统不支持返回 false
+     */
+    @SuppressWarnings("unchecked")
+    private boolean setDontFragment(boolean on) {
+        try {
+            Object option = Class.forName("jdk.net.ExtendedSocketOptions").getField("IP_DONTFRAGMENT").get(null);
+            channel.setOption((SocketOption<Boolean>) option, on);
+            return true;
+        } catch (ReflectiveOperationException | UnsupportedOperationException | IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return 本机发往Server的网卡的MTU，无法确定时返回 -1
+     */
+    private int localMtu() {
+        try {
+            InetAddress local = ((InetSocketAddress) channel.getLocalAddress()).getAddress();
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(local);
+            return networkInterface != null ? networkInterface.getMTU() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Client和Server采用滑动窗口方式发送文件
+     * 文件按窗口大小流式读取，窗口右移时才读入后续分块，不会将整个文件载入内存
+     * 数据报由直接缓冲区中的报头与数据区聚集写出，数据只从页缓存拷贝一次
      *
      * @return 成功返回 true 失败返回 false
      */
     public boolean sendFile2() {
-        UDP udp;
-        try {
-            reader = new BufferedInputStream(new FileInputStream(fileSource));
-            int fileLength = reader.available();
-            byte[] allData = new byte[fileLength];
-            int times = (fileLength / (2048)) + 1;
-            System.out.println("\n文件大小为：" + reader.read(allData, 0, fileLength) + "bit");
-            System.out.println("文件将分为：" + times + " 个数据报进行发送。");
-            int tempSeq = seqNum;
-
-            // 将文件拆分成单个数据报
-            byte[][] temp = UDPutils.splitBytes(allData, 1687);
-            DatagramPacket[] packet = new DatagramPacket[times];
-            for (int i = 0; i < times; i++) {
-                byte[] dataTemp = temp[i];
-                udp = new UDP(sourcePort, targetPort, Integer.toString(tempSeq), "0", "0", "0", "0", "4", dataTemp);
-                tempSeq++;
-                byte[] udpByte = UDPutils.objectToByte(udp);
-                packet[i] = new DatagramPacket(udpByte, 0, udpByte.length, targetIp, Integer.parseInt(targetPort));
+        try (FileChannel in = FileChannel.open(fileSource.toPath(), StandardOpenOption.READ)) {
+            long offset = subFlow != null ? subFlow.getOffset() : 0;
+            long fileLength = subFlow != null ? subFlow.getLength() : in.size();
+            SendWindow window = new SendWindow(in, offset, fileLength, seqNum, windowSize, segmentSize, sourcePort, targetPort, connectionId);
+            if (subFlow != null) {
+                System.out.println("\n" + subFlow);
             }
-            // 为每一个数据报设置一个标志状态位
-            int[] packetState = new int[times];
-            // 记录发送成功数据报个数
-            int sendPacketNums = 0;
-
-            // 开始发送
-            int head = 0, tail = head + windowSize - 1;
-            tempSeq = seqNum;
-            int x = 0;
+            System.out.println("\n文件大小为：" + fileLength + "bit");
+            System.out.println("文件将分为：" + window.getTotalSegments() + " 个数据报进行发送。");
+
+            // 聚集写要求 channel 已连接到 Server
+            if (!channel.isConnected()) {
+                channel.connect(new InetSocketAddress(targetIp, targetPort));
+            }
+            // ACK接收缓冲区取自缓冲池，与解码对象在整个发送过程中复用，一次唤醒收取一批ACK
+            ByteBuffer[] ackBuffers = new ByteBuffer[BATCH_SIZE];
+            for (int i = 0; i < ackBuffers.length; i++) {
+                ackBuffers[i] = pool.acquire();
+            }
+            UDP ackUdp = new UDP();
+
+            // 发现丢包时已发出的最后一个分块，它被确认之前处于恢复期，同一窗口内的丢包只让拥塞窗口缩减一次
+            long recover = -1;
+            // 超时重传时已发出的最后一个分块，它被确认之前的超时属于同一次超时
+            long timeoutRecover = -1;
+            // 最近一次的累计确认与重复次数，以及判定丢失、等待快速重传的数据报
+            int lastAck = seqNum;
+            int dupAcks = 0;
+            // 超时重传与快速重传的数据报个数，发送结束时汇总打印
+            long retransmitted = 0;
+            long fastRetransmitted = 0;
+            ArrayDeque<SendWindow.Segment> lost = new ArrayDeque<>();
+            int packetLength = UDPCodec.HEADER_LENGTH + segmentSize;
+            pacer = new Pacer(maxRate, packetLength);
+            BatchIO io = BatchIO.open(channel);
+            batch = new SendBatch(io, BATCH_SIZE, null);
+            // 等待ACK由 Selector 按最近的重传定时器限时，不再依赖 SocketTimeoutException
+            openSelector();
             while (true) {
                 // 如果所有数据报发送完毕，就开始准备断开连接
-                if (sendPacketNums == times) {
+                if (window.isFinished()) {
+                    // FIN 的seq紧接最后一个数据报，挥手时可据此区分残留的数据ACK
+                    seqNum += (int) window.getTotalSegments();
+                    for (ByteBuffer buffer : ackBuffers) {
+                        pool.release(buffer);
+                    }
                     System.out.println("文件发送成功！！！");
+                    System.out.println(state + "  共 " + window.getTotalSegments() + " 个分块，超时重传 " + retransmitted + " 次，快速重传 " + fastRetransmitted + " 次");
+                    System.out.println(state + "  " + rtt);
+                    System.out.println(state + "  " + congestion);
+                    System.out.println(state + "  " + pacer);
+                    System.out.println(state + "  " + batch);
                     return true;
                 }
-                // 判断窗口中所有数据报的状态，将未发送的全部发送出去
-                for (int i = head; i <= tail; i++) {
-                    x = seqNum + i;
-                    if (packetState[head] == 1) {
-                        head++;
-                        if (tail != (times - 1)) {
-                            tail++;
+                // 只重传各自定时器已到期的数据报
+                long now = System.nanoTime() / 1000;
+                if (timers.expire(now, expired) > 0) {
+                    // 定速发出的分块在相继的 tick 上到期，同一次超时只让 RTO 加倍、拥塞窗口重置一次，其余到期的分块只重传
+                    // 窗口头部分块的重传再次超时说明重传也丢失了，RTO 继续加倍
+                    SendWindow.Segment first = window.get(window.getHead());
+                    boolean headExpired = first.isSent() && !first.isAcked() && !first.isScheduled();
+                    if (window.getHead() > timeoutRecover) {
+                        rtt.backoff();
+                        congestion.onTimeout(window.getInFlight(), now);
+                        timeoutRecover = window.getNext() - 1;
+                        recover = timeoutRecover;
+                        System.out.println(state + "  " + expired.size() + " 个数据报等待ACK超时，RTO = " + rtt.getRtoMillis() + "ms，" + congestion);
+                    } else if (headExpired) {
+                        rtt.backoff();
+                        System.out.println(state + "  重传的数据报再次超时，RTO = " + rtt.getRtoMillis() + "ms");
+                    }
+                    SendWindow.Segment segment;
+                    // 发送文件时时间轮中只有分块的重传定时器
+                    while ((segment = (SendWindow.Segment) expired.poll()) != null) {
+                        send(segment, now);
+                        retransmitted++;
+                        if (UDPutils.DEBUG) {
+                            System.out.println(state + "  重新发送分块 " + (segment.getIndex() + 1) + " Seq = " + segment.getUdp().getSequence_Number());
                         }
                     }
-                    if (packetState[i] == 0 && x < tempSeq) {
-                        socket.send(packet[i]);
-                        System.out.println(state + "  重新发送分块 " + (i + 1) + " Seq = " + x);
-                    } else if (packetState[i] == 0) {
-                        socket.send(packet[i]);
-                        System.out.println(state + "  发送分块 " + (i + 1) + " Seq = " + x);
-                        tempSeq++;
+                }
+                // 窗口右移后读入新的分块，在拥塞窗口允许的范围内将尚未发送过的数据报按定速发送出去
+                // 令牌不足时记下可以继续发送的时间，等待ACK时到点醒来
+                // 发送批只引用窗口中的缓冲区，读入新分块会覆盖已确认的空位，读入之前先发出
+                batch.flush();
+                window.fill();
+                pacer.setRate(congestion.getPacingRate(rtt.getSrtt()) * packetLength);
+                long paceUntil = Long.MAX_VALUE;
+                SendWindow.Segment segment;
+                while (window.hasUnsent(congestion.getWindow())) {
+                    long current = System.nanoTime() / 1000;
+                    long delay = pacer.delay(packetLength, current);
+                    if (delay > 0) {
+                        paceUntil = current + delay;
+                        break;
+                    }
+                    segment = window.pollUnsent(congestion.getWindow());
+                    send(segment, current);
+                    segment.setSent(true);
+                    if (UDPutils.DEBUG) {
+                        System.out.println(state + "  发送分块 " + (segment.getIndex() + 1) + " Seq = " + segment.getUdp().getSequence_Number());
                     }
                 }
+                // 对端窗口关闭且没有在途数据报时，不会再收到ACK，发送一个分块探测窗口，此后由其重传定时器按RTO退避继续探测
+                if (window.isWindowClosed() && timers.isEmpty() && (segment = window.pollProbe()) != null) {
+                    send(segment, now);
+                    segment.setSent(true);
+                    System.out.println(state + "  对端窗口已关闭，发送窗口探测 Seq = " + segment.getUdp().getSequence_Number());
+                }
 
-                // 等待ACK，当收到窗口头部对应的ACK时，窗口右移，等待超时则进行重传
-                int headTemp = head, tailTemp = tail;
-                for (int i = headTemp; i <= tailTemp; i++) {
-                    byte[] rec = new byte[512];
-                    DatagramPacket receivePacket = new DatagramPacket(rec, 0, rec.length);
-
-                    try {
-                        // 定时10ms
-                        socket.setSoTimeout(10);
-                        socket.receive(receivePacket);
-                    } catch (IOException e) {
-                        continue;
+                // 等待ACK，直到有数据报被确认、可以继续发送、定速允许继续发送，或最近的重传定时器到期
+                int inFlight = window.getInFlight();
+                while (window.getInFlight() == inFlight) {
+                    // 等待之前发出本轮放入发送批的数据报
+                    batch.flush();
+                    long wait = Math.min(timers.nextExpiry(), paceUntil) - System.nanoTime() / 1000;
+                    if (wait <= 0) {
+                        break;
                     }
-                    if (UDPutils.byteToObject(rec) == null) {
+                    int count = io.receive(ackBuffers, null);
+                    if (count == 0) {
+                        // 暂无ACK，等到 channel 可读或定时器到期
+                        if (selector.select(Math.min(rtt.getRtoMillis(), Math.max(1, (wait + 999) / 1000))) == 0) {
+                            break;
+                        }
+                        selector.selectedKeys().clear();
                         continue;
                     }
-                    udp = (UDP) UDPutils.byteToObject(rec);
-                    // 判断收到的 ACK 是响应哪个数据报的，若是窗口头部的数据报，则窗口右移一个单位，若该 ACK 响应的数据报不在当前窗口，则不做相应操作
-                    int ackTemp = (Integer.parseInt(udp.getAck()) - 1) - seqNum;
-                    if (ackTemp >= head && ackTemp <= tail) {
-                        System.out.println(state + "  接收ACK ack = " + udp.getAck());
-                        packetState[ackTemp] = 1;
-                        sendPacketNums++;
-                        if (ackTemp == head) {
-                            head++;
-                            if (tail != (times - 1)) {
-                                tail++;
+                    for (int i = 0; i < count; i++) {
+                        // 出错的ACK直接丢弃，迟到的探测确认不是数据ACK
+                        if (!UDPutils.compareChecksum(ackBuffers[i]) || UDPCodec.decodeHeader(ackBuffers[i], ackUdp) == null || ackUdp.isProbe()) {
+                            continue;
+                        }
+                        // ACK 回显了对应数据报的发送时间戳，可以确定是哪一次发送，重传的数据报也能得到有效样本
+                        long sample = RttEstimator.elapsed(ackUdp.getTimestamp_Echo());
+                        rtt.sample(sample);
+                        // 累计确认之前与选择确认块内的数据报均已收到，取消它们的重传定时器，不在当前窗口的部分不做相应操作
+                        int acked = window.acknowledge(ackUdp, timers);
+                        window.updateWindow(ackUdp.getAck(), (long) ackUdp.getWindow_Size() << windowShift);
+                        long received = System.nanoTime() / 1000;
+                        if (ackUdp.getAck() == lastAck && acked == 0) {
+                            dupAcks++;
+                        } else if (ackUdp.getAck() != lastAck) {
+                            lastAck = ackUdp.getAck();
+                            dupAcks = 0;
+                        }
+                        // 缺口之上已有足够多的数据报到达，缺口处的数据报判定丢失，不等超时立即重传
+                        if (window.detectLost(DUP_THRESHOLD, dupAcks >= DUP_THRESHOLD, lost) > 0) {
+                            if (window.getHead() > recover) {
+                                congestion.onLoss(window.getInFlight(), received);
+                                recover = window.getNext() - 1;
+                                System.out.println(state + "  发现丢包，进入快速恢复，" + congestion);
+                            }
+                            SendWindow.Segment retransmit;
+                            while ((retransmit = lost.poll()) != null) {
+                                send(retransmit, received);
+                                fastRetransmitted++;
+                                if (UDPutils.DEBUG) {
+                                    System.out.println(state + "  快速重传分块 " + (retransmit.getIndex() + 1) + " Seq = " + retransmit.getUdp().getSequence_Number());
+                                }
+                            }
+                        }
+                        if (acked > 0) {
+                            congestion.onAck(acked, sample, window.getHead() <= recover, received);
+                            if (UDPutils.DEBUG) {
+                                System.out.println(state + "  接收ACK ack = " + ackUdp.getAck() + "，SACK " + ackUdp.getSack_Count() + " 块，新确认 " + acked + " 个数据报");
                             }
                         }
                     }
                 }
-//                System.out.println(Arrays.toString(packetState));
             }
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
         return false;
     }
 
+    /**
+     * 发送窗口中的一个数据报，放入发送批，并按当前RTO重新设置它的重传定时器，发出的字节计入定速
+     *
+     * @param segment 要发送的分块
+     * @param now     当前时间，微秒
+     * @throws IOException 发送异常
+     */
+    private void send(SendWindow.Segment segment, long now) throws IOException {
+        segment.stamp(RttEstimator.timestamp());
+        batch.add(segment.getBuffers(), null);
+        timers.schedule(segment, now + rtt.getRto());
+        pacer.consume(segment.getUdp().getLength(), now);
+    }
+
     /**
      * 文件发送完毕，开始与Server断开连接，进行四次挥手
      *
      * @return 断开成功返回true，反之返回false
      * @throws IOException 挥手异常
-     * @throws ClassNotFoundException 挥手异常
      */
-    public boolean waveHands() throws IOException, ClassNotFoundException {
+    public boolean waveHands() throws IOException {
         UDP udp;
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        // 重发的FIN使用相同的seq
+        int finSeq = seqNum;
         while (true) {
             switch (state) {
                 case "ESTAB-LISHEN":
                     // 发送 FIN=1，seq=u, 并且进入 FIN-WAIT-1 等待Server响应
                     System.out.println("\n开始与 " + UDPutils.getStringIp(targetIp) + " 断开连接。");
-                    udp = new UDP(sourcePort, targetPort, Integer.toString(seqNum), "0", "0", "0", "1", "0", null);
-                    byte[] udpBytes1 = UDPutils.objectToByte(udp);
-                    DatagramPacket sendPacket = new DatagramPacket(udpBytes1, 0, udpBytes1.length, targetIp, Integer.parseInt(targetPort));
-
+                    seqNum = finSeq;
+                    udp = new UDP(sourcePort, targetPort, seqNum, 0, UDP.FLAG_FIN, 0, null);
+                    udp.setConnection_Id(connectionId);
                     System.out.println(state + " 发送：FIN=1，seq=" + seqNum);
-                    socket.send(sendPacket);
+                    send(udp);
                     seqNum++;
                     state = "FIN-WAIT-1";
 
                 case "FIN-WAIT-1":
                     // 客户端进入 FIN-WAIT-1 状态等待Server响应
-                    byte[] udpBytes2 = new byte[512];
-                    DatagramPacket receivePacket = new DatagramPacket(udpBytes2, 0, udpBytes2.length);
-                    socket.setSoTimeout(4000);
-                    try {
-                        socket.receive(receivePacket);
-                    } catch (SocketTimeoutException e) {
+                    udp = receiveControl(buffer, System.nanoTime() / 1000 + CONTROL_TIMEOUT);
+                    if (udp == null) {
                         System.out.println(state + "  等待ACK超时，重新请求断开连接。。。");
                         state = "ESTAB-LISHEN";
                         continue;
                     }
-
-                    if (UDPutils.byteToObject(udpBytes2) != null) {
-                        udp = (UDP) UDPutils.byteToObject(udpBytes2);
-                    } else {
-                        System.out.println("接收发生错误，连接失败！");
-                        state = "ESTAB-LISHEN";
+                    // 发送文件时重复回复的ACK可能晚于FIN到达，直接忽略，继续等待
+                    if (isStaleAck(udp)) {
                         continue;
                     }
                     // 收到响应，判断各项数值是否符合要求,符合进入 FIN-WAIT-2 状态，等待Server发起连接断开请求，反之Client重新发起，断开请求
-                    if ("1".equals(udp.getACK()) && seqNum == Integer.parseInt(udp.getAck())) {
+                    if (udp.isACK() && seqNum == udp.getAck()) {
                         System.out.println(state + "  接收：ACK=1，seq=" + udp.getSequence_Number() + "，ack=" + udp.getAck() + " request successful");
                         state = "FIN-WAIT-2";
                     } else {
@@ -389,27 +695,20 @@ public class Client implements Runnable {
 
                 case "FIN-WAIT-2":
                     // 进入 FIN-WAIT-2 状态，等待Server发起连接断开请求
-                    byte[] udpBytes3 = new byte[512];
-                    DatagramPacket receivePacket2 = new DatagramPacket(udpBytes3, 0, udpBytes3.length);
-                    try {
-                        socket.receive(receivePacket2);
-                    } catch (SocketTimeoutException e) {
+                    udp = receiveControl(buffer, System.nanoTime() / 1000 + CONTROL_TIMEOUT);
+                    if (udp == null) {
                         System.out.println(state + "  等待Server端的断开请求超时，Client重新进行断开请求。。。\n");
                         state = "ESTAB-LISHEN";
                         continue;
                     }
 
-                    if (UDPutils.byteToObject(udpBytes3) != null) {
-                        udp = (UDP) UDPutils.byteToObject(udpBytes3);
-                    } else {
-                        System.out.println("接收发生错误，连接失败！");
-                        state = "ESTAB-LISHEN";
+                    // 残留的数据ACK与重复的FIN确认都不是Server的断开请求，忽略
+                    if (udp.isACK() && !udp.isFin()) {
                         continue;
                     }
-
                     // 对接收到请求作出判断，判断请求是否合理，合理则，发出响应，并且进入CLOSED状态
-                    ack = Integer.parseInt(udp.getSequence_Number()) + 1;
-                    if ("1".equals(udp.getACK()) && "1".equals(udp.getFin()) && seqNum == Integer.parseInt(udp.getAck())) {
+                    ack = udp.getSequence_Number() + 1;
+                    if (udp.isACK() && udp.isFin() && seqNum == udp.getAck()) {
                         System.out.println(state + "  接收：FIN=1，ACK=1，seq=" + udp.getSequence_Number() + "，ack=" + udp.getAck());
                     } else {
                         System.out.println(state + "  接收：SYN=1，ACK=1，seq=" + udp.getSequence_Number() + "，ack=" + udp.getAck());
@@ -418,16 +717,16 @@ public class Client implements Runnable {
                     }
 
                     // 响应Server发起的断开请求,并且进入CLOSED状态，此次连接结束
-                    udp = new UDP(sourcePort, targetPort, Integer.toString(seqNum), "1", Integer.toString(ack), "0", "0", "0", null);
-                    byte[] udpBytes4 = UDPutils.objectToByte(udp);
-                    DatagramPacket sendPacket2 = new DatagramPacket(udpBytes4, 0, udpBytes4.length, targetIp, Integer.parseInt(targetPort));
+                    udp = new UDP(sourcePort, targetPort, seqNum, ack, UDP.FLAG_ACK, 0, null);
+                    udp.setConnection_Id(connectionId);
                     System.out.println(state + " 发送：ACK=1，seq=" + seqNum + "，ack=" + ack + " return successful");
-                    socket.send(sendPacket2);
+                    send(udp);
                     seqNum++;
                     state = "CLOSED";
 
                 case "CLOSED":
-                    socket.close();
+                    closeSelector();
+                    channel.close();
                     return true;
                 default:
                     break;
@@ -435,4 +734,90 @@ public class Client implements Runnable {
         }
     }
 
+    /**
+     * 编码并发出一个控制报文，非阻塞模式下发送缓冲区已满时与网络丢包一样丢弃，由等待回复的超时重发
+     *
+     * @param udp 报文
+     * @throws IOException 发送异常
+     */
+    private void send(UDP udp) throws IOException {
+        openSelector();
+        channel.send(ByteBuffer.wrap(UDPCodec.encode(udp)), new InetSocketAddress(targetIp, targetPort));
+    }
+
+    /**
+     * 等待控制报文，直到收到一个报文或到达截止时间
+     * 截止时间作为 control 定时器放入与重传定时器相同的时间轮，等待期间由 Selector 按时间轮中最近的定时器限时
+     *
+     * @param buffer   接收缓冲区
+     * @param deadline 截止时间，微秒
+     * @return 收到的报文，到达截止时间返回 null
+     * @throws IOException 接收异常
+     */
+    private UDP receiveControl(ByteBuffer buffer, long deadline) throws IOException {
+        openSelector();
+        timers.schedule(control, deadline);
+        try {
+            while (true) {
+                buffer.clear();
+                if (channel.receive(buffer) != null) {
+                    buffer.flip();
+                    // 出错的报文直接丢弃，SYN-ACK 中的窗口缩放位数出错会放大窗口，进而放大发送窗口的分配
+                    UDP udp = UDPutils.decodeVerified(buffer);
+                    if (udp != null) {
+                        return udp;
+                    }
+                    continue;
+                }
+                // 握手、探测与挥手时时间轮中只有 control 定时器
+                long now = System.nanoTime() / 1000;
+                timers.expire(now, expired);
+                expired.clear();
+                if (!control.isScheduled()) {
+                    return null;
+                }
+                selector.select(Math.max(1, (timers.nextExpiry() - now + 999) / 1000));
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            timers.cancel(control);
+        }
+    }
+
+    /**
+     * channel 切换为非阻塞模式并注册到 Selector，已注册时不做处理
+     *
+     * @throws IOException 注册异常
+     */
+    private void openSelector() throws IOException {
+        if (selector == null) {
+            selector = Selector.open();
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * 关闭 Selector，channel 切回阻塞模式
+     *
+     * @throws IOException 关闭异常
+     */
+    private void closeSelector() throws IOException {
+        if (selector != null) {
+            selector.close();
+            selector = null;
+            channel.configureBlocking(true);
+        }
+    }
+
+    /**
+     * 判断是否为发送文件阶段残留的ACK，其确认号在FIN之前，迟到的探测确认同样忽略
+     *
+     * @param udp 挥手时收到的报文
+     * @return 残留的ACK返回 true
+     */
+    private boolean isStaleAck(UDP udp) {
+        return udp.isACK() && !udp.isFin() && !udp.isSyn() && (udp.isProbe() || seqNum - udp.getAck() > 0);
+    }
+
 }
@@ -2,6 +2,7 @@ import java.net.UnknownHostException;
 
 /**
  * 启动Client
+ * 参数为子流个数时并行发送
  *
  * @author : LiuYi
  * @version : 2.0
@@ -9,6 +10,11 @@ import java.net.UnknownHostException;
  */
 public class ClientStart {
     public static void main(String[] args) throws UnknownHostException {
+        // 参数为子流个数时，从 1111 开始的连续端口并行发送
+        if (args.length > 0) {
+            new Thread(new ParallelClient("127.0.0.1", "1111", "127.0.0.1", "2222", "E:\\非编程\\学校作业（word）\\网络协议分析\\大作业\\ClientFile\\test.txt", Integer.parseInt(args[0]))).start();
+            return;
+        }
         new Thread(new Client("127.0.0.1", "1111", "127.0.0.1", "2222", "E:\\非编程\\学校作业（word）\\网络协议分析\\大作业\\ClientFile\\test.txt")).start();
 //            new Thread(new Client("192.168.43.215","1111","192.168.43.3","2222","E:\\非编程\\学校作业（word）\\网络协议分析\\大作业\\ClientFile\\大作业报告.doc")).start();
     }
@@ -0,0 +1,78 @@
+/**
+ * 拥塞控制算法
+ * 发送循环在每次确认、检测到丢包和超时时通知算法，并按 getWindow 限制在途数据报个数
+ * 窗口以数据报个数为单位，时间单位均为微秒
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/11 15:26
+ */
+public interface CongestionControl {
+    /**
+     * 初始拥塞窗口与最小拥塞窗口
+     **/
+    int INITIAL_WINDOW = 4;
+    int MIN_WINDOW = 2;
+    /**
+     * 默认的定速增益，慢启动期间窗口每轮翻倍，速率需高于 窗口/往返时延 才不会拖慢窗口增长
+     **/
+    double PACING_GAIN = 2;
+
+    /**
+     * @return 当前允许的在途数据报个数
+     */
+    int getWindow();
+
+    /**
+     * 收到确认了新数据报的ACK
+     *
+     * @param acked    本次新确认的数据报个数
+     * @param rtt      本次ACK得到的往返时延样本，没有有效样本为 -1
+     * @param recovery 是否处于快速恢复期间，即丢包发生时已发出的数据报尚未全部确认
+     * @param now      当前时间
+     */
+    void onAck(int acked, long rtt, boolean recovery, long now);
+
+    /**
+     * 通过选择确认发现丢包，进入快速恢复，同一窗口内只通知一次
+     *
+     * @param inFlight 当前在途数据报个数
+     * @param now      当前时间
+     */
+    void onLoss(int inFlight, long now);
+
+    /**
+     * 重传定时器超时
+     *
+     * @param inFlight 当前在途数据报个数
+     * @param now      当前时间
+     */
+    void onTimeout(int inFlight, long now);
+
+    /**
+     * 发送方据此为数据报定速，默认为 增益 x 拥塞窗口 / 平滑往返时延
+     *
+     * @param srtt 平滑往返时延
+     * @return 目标发送速率，数据报/微秒，尚无往返时延样本时返回 0
+     */
+    default double getPacingRate(long srtt) {
+        return srtt > 0 ? PACING_GAIN * getWindow() / srtt : 0;
+    }
+
+    /**
+     * 按名称创建拥塞控制算法
+     *
+     * @param name newreno、cubic 或 bbr
+     * @return 对应的算法，名称无法识别时返回 NewReno
+     */
+    static CongestionControl of(String name) {
+        switch (name == null ? "" : name.toLowerCase()) {
+            case "cubic":
+                return new Cubic();
+            case "bbr":
+                return new DelayBased();
+            default:
+                return new NewReno();
+        }
+    }
+}
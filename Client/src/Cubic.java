@@ -0,0 +1,109 @@
+/**
+ * CUBIC 拥塞控制
+ * 拥塞避免阶段窗口按距上次丢包时间的三次函数增长，W(t) = C x (t - K)^3 + Wmax，
+ * 在上次丢包时的窗口 Wmax 附近放缓，越过后加速探测，增长速度与往返时延无关，适合长肥管道
+ * 丢包时窗口乘以 0.7，同时不低于按 NewReno 估计的窗口
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/11 16:20
+ */
+public class Cubic implements CongestionControl {
+    /**
+     * 三次函数系数与丢包后的窗口缩减系数
+     **/
+    private static final double C = 0.4;
+    private static final double BETA = 0.7;
+
+    private double cwnd = INITIAL_WINDOW;
+    private double ssthresh = Integer.MAX_VALUE;
+    /**
+     * 上次丢包时的窗口
+     **/
+    private double wMax;
+    /**
+     * 窗口从缩减后增长回 wMax 所需的时间，秒
+     **/
+    private double k;
+    /**
+     * 本轮拥塞避免的开始时间，0 表示尚未开始
+     **/
+    private long epochStart;
+    /**
+     * 按 NewReno 方式增长的估计窗口，保证在短往返时延下不慢于 NewReno
+     **/
+    private double wEst;
+    /**
+     * 最小往返时延
+     **/
+    private long minRtt = Long.MAX_VALUE;
+
+    @Override
+    public int getWindow() {
+        return (int) cwnd;
+    }
+
+    @Override
+    public void onAck(int acked, long rtt, boolean recovery, long now) {
+        if (rtt > 0) {
+            minRtt = Math.min(minRtt, rtt);
+        }
+        if (recovery) {
+            return;
+        }
+        if (cwnd < ssthresh) {
+            cwnd += acked;
+            return;
+        }
+        if (epochStart == 0) {
+            epochStart = now;
+            if (cwnd < wMax) {
+                k = Math.cbrt((wMax - cwnd) / C);
+            } else {
+                k = 0;
+                wMax = cwnd;
+            }
+            wEst = cwnd;
+        }
+        // 按一个往返时延之后的目标窗口计算本次增量
+        long rttForTarget = minRtt == Long.MAX_VALUE ? 0 : minRtt;
+        double t = (now + rttForTarget - epochStart) / 1_000_000.0;
+        double target = C * Math.pow(t - k, 3) + wMax;
+        wEst += 3 * (1 - BETA) / (1 + BETA) * acked / cwnd;
+        if (target > cwnd) {
+            cwnd += (target - cwnd) / cwnd * acked;
+        } else {
+            cwnd += 0.01 * acked / cwnd;
+        }
+        if (wEst > cwnd) {
+            cwnd = wEst;
+        }
+    }
+
+    @Override
+    public void onLoss(int inFlight, long now) {
+        epochStart = 0;
+        // 连续丢包时窗口仍低于上次的 wMax，说明可用带宽在下降，进一步让出带宽
+        if (cwnd < wMax) {
+            wMax = cwnd * (1 + BETA) / 2;
+        } else {
+            wMax = cwnd;
+        }
+        cwnd = Math.max(cwnd * BETA, MIN_WINDOW);
+        ssthresh = cwnd;
+    }
+
+    @Override
+    public void onTimeout(int inFlight, long now) {
+        onLoss(inFlight, now);
+        cwnd = 1;
+    }
+
+    @Override
+    public String toString() {
+        return "Cubic{" +
+                "cwnd = " + (int) cwnd +
+                ", wMax = " + (int) wMax +
+                '}';
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * 基于时延的拥塞控制，思路与 BBR 相同
+ * 不把丢包当作拥塞信号，而是每个往返时延测一次交付速率，取最近 10 轮的最大值作为瓶颈带宽，
+ * 取最近 10s 的最小往返时延作为传播时延，窗口设为 2 倍带宽时延积
+ * 平滑往返时延超出最小往返时延 25% 即视为瓶颈开始排队，此后窗口保持在排队开始时的大小，不再增长，排队消失后恢复
+ * 启动阶段窗口按慢启动增长，直到带宽连续 3 轮增长不足 25%
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/11 17:05
+ */
+public class DelayBased implements CongestionControl {
+    /**
+     * 带宽最大值滤波的轮数、最小往返时延的有效期、窗口相对带宽时延积的增益
+     **/
+    private static final int BANDWIDTH_ROUNDS = 10;
+    private static final long MIN_RTT_EXPIRY = 10_000_000;
+    private static final double CWND_GAIN = 2;
+    /**
+     * 排队时延超过最小往返时延的该比例时停止增长窗口，平滑往返时延的权重同 RFC 6298
+     **/
+    private static final double QUEUE_THRESHOLD = 0.25;
+    private static final double SRTT_GAIN = 0.125;
+    /**
+     * 启动阶段与稳定阶段的定速增益，稳定阶段按瓶颈带宽发送，不再制造排队
+     **/
+    private static final double STARTUP_PACING_GAIN = 2;
+    private static final double STEADY_PACING_GAIN = 1;
+
+    /**
+     * 最近若干轮的交付速率，数据报/微秒
+     **/
+    private final double[] bandwidth = new double[BANDWIDTH_ROUNDS];
+    private long round;
+    /**
+     * 本轮开始的时间与当时已交付的数据报个数
+     **/
+    private long roundStart;
+    private long roundDelivered;
+    /**
+     * 累计交付的数据报个数
+     **/
+    private long delivered;
+    private long minRtt = Long.MAX_VALUE;
+    private long minRttStamp;
+    /**
+     * 平滑往返时延，以及排队开始时的窗口，未排队时为 -1
+     **/
+    private double srtt;
+    private int heldWindow = -1;
+    /**
+     * 启动阶段的窗口，及带宽增长不足的连续轮数
+     **/
+    private boolean startup = true;
+    private double cwnd = INITIAL_WINDOW;
+    private double fullBandwidth;
+    private int fullBandwidthRounds;
+
+    @Override
+    public int getWindow() {
+        int window = modelWindow();
+        return heldWindow > 0 ? Math.min(window, heldWindow) : window;
+    }
+
+    @Override
+    public void onAck(int acked, long rtt, boolean recovery, long now) {
+        if (rtt > 0 && (rtt <= minRtt || now - minRttStamp > MIN_RTT_EXPIRY)) {
+            minRtt = rtt;
+            minRttStamp = now;
+        }
+        if (rtt > 0) {
+            srtt = srtt == 0 ? rtt : srtt + SRTT_GAIN * (rtt - srtt);
+        }
+        // 排队开始时记下当前窗口，排队期间窗口不超过它
+        if (!isQueueing()) {
+            heldWindow = -1;
+        } else if (heldWindow < 0) {
+            heldWindow = modelWindow();
+        }
+        delivered += acked;
+        if (startup && heldWindow < 0) {
+            cwnd += acked;
+        }
+        if (roundStart == 0) {
+            roundStart = now;
+            roundDelivered = delivered - acked;
+            return;
+        }
+        // 每经过一个最小往返时延结束一轮，得到一个交付速率样本
+        if (minRtt == Long.MAX_VALUE || now - roundStart < minRtt) {
+            return;
+        }
+        double rate = (double) (delivered - roundDelivered) / (now - roundStart);
+        bandwidth[(int) (round++ % BANDWIDTH_ROUNDS)] = rate;
+        roundStart = now;
+        roundDelivered = delivered;
+        if (startup) {
+            double bw = getBandwidth();
+            if (bw >= fullBandwidth * 1.25) {
+                fullBandwidth = bw;
+                fullBandwidthRounds = 0;
+            } else if (++fullBandwidthRounds >= 3) {
+                startup = false;
+            }
+        }
+    }
+
+    @Override
+    public void onLoss(int inFlight, long now) {
+        // 丢包不作为拥塞信号，窗口只由带宽与往返时延决定
+    }
+
+    @Override
+    public void onTimeout(int inFlight, long now) {
+        // 超时说明带宽估计已不可信，重新进入启动阶段
+        startup = true;
+        cwnd = INITIAL_WINDOW;
+        fullBandwidth = 0;
+        fullBandwidthRounds = 0;
+        heldWindow = -1;
+    }
+
+    /**
+     * 按瓶颈带宽定速，尚无带宽样本时按窗口与往返时延估计
+     */
+    @Override
+    public double getPacingRate(long srtt) {
+        double bw = getBandwidth();
+        if (bw <= 0) {
+            return CongestionControl.super.getPacingRate(srtt);
+        }
+        return (startup ? STARTUP_PACING_GAIN : STEADY_PACING_GAIN) * bw;
+    }
+
+    /**
+     * @return 瓶颈带宽估计，数据报/微秒
+     */
+    public double getBandwidth() {
+        double max = 0;
+        for (double rate : bandwidth) {
+            max = Math.max(max, rate);
+        }
+        return max;
+    }
+
+    public long getMinRtt() {
+        return minRtt;
+    }
+
+    /**
+     * @return 平滑往返时延超出最小往返时延的阈值，即瓶颈处正在排队
+     */
+    public boolean isQueueing() {
+        return minRtt != Long.MAX_VALUE && srtt > minRtt * (1 + QUEUE_THRESHOLD);
+    }
+
+    /**
+     * 启动阶段为慢启动窗口，此后为带宽时延积乘以增益
+     */
+    private int modelWindow() {
+        if (startup || minRtt == Long.MAX_VALUE) {
+            return (int) cwnd;
+        }
+        return (int) Math.max(2 * MIN_WINDOW, Math.ceil(CWND_GAIN * getBandwidth() * minRtt));
+    }
+
+    @Override
+    public String toString() {
+        return "DelayBased{" +
+                "cwnd = " + getWindow() +
+                ", bandwidth = " + (long) (getBandwidth() * 1_000_000) +
+                "/s, minRtt = " + (minRtt == Long.MAX_VALUE ? "-" : minRtt + "us") +
+                ", startup = " + startup +
+                ", queueing = " + isQueueing() +
+                '}';
+    }
+}
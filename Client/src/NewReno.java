@@ -0,0 +1,56 @@
+/**
+ * NewReno 拥塞控制
+ * 慢启动阶段每确认一个数据报窗口加 1，超过慢启动阈值后每个往返时延窗口加 1，
+ * 丢包时窗口减半并进入快速恢复，超时后窗口回到 1 重新慢启动
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/11 15:48
+ */
+public class NewReno implements CongestionControl {
+    /**
+     * 拥塞窗口，拥塞避免阶段按小数累加
+     **/
+    private double cwnd = INITIAL_WINDOW;
+    /**
+     * 慢启动阈值
+     **/
+    private double ssthresh = Integer.MAX_VALUE;
+
+    @Override
+    public int getWindow() {
+        return (int) cwnd;
+    }
+
+    @Override
+    public void onAck(int acked, long rtt, boolean recovery, long now) {
+        if (recovery) {
+            return;
+        }
+        if (cwnd < ssthresh) {
+            cwnd += acked;
+        } else {
+            cwnd += (double) acked / cwnd;
+        }
+    }
+
+    @Override
+    public void onLoss(int inFlight, long now) {
+        ssthresh = Math.max(inFlight / 2.0, MIN_WINDOW);
+        cwnd = ssthresh;
+    }
+
+    @Override
+    public void onTimeout(int inFlight, long now) {
+        ssthresh = Math.max(inFlight / 2.0, MIN_WINDOW);
+        cwnd = 1;
+    }
+
+    @Override
+    public String toString() {
+        return "NewReno{" +
+                "cwnd = " + (int) cwnd +
+                ", ssthresh = " + (ssthresh >= Integer.MAX_VALUE ? "-" : String.valueOf((int) ssthresh)) +
+                '}';
+    }
+}
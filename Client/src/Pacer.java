@@ -0,0 +1,117 @@
+/**
+ * 发送定速
+ * 令牌桶按目标速率积累可发送的字节数，数据报只有在令牌足够时才发出，避免整窗数据报连续发出造成突发丢包
+ * 目标速率由拥塞控制算法给出，并受每个连接的最大速率限制；尚无速率时不限速
+ * 等待ACK的 Selector 以毫秒为单位，桶的容量取 1ms 内可发送的字节数，至少容纳 2 个数据报，
+ * 每次唤醒后可一次发出这段时间积累的数据报，平均速率不受等待精度影响
+ * 时间单位为微秒，速率单位为 字节/微秒
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/16 10:30
+ */
+public class Pacer {
+    /**
+     * 桶容量对应的时长与最少容纳的数据报个数
+     **/
+    private static final long BURST_TIME = 1000;
+    private static final int MIN_BURST_PACKETS = 2;
+
+    /**
+     * 每个连接的最大速率，0 表示不限
+     **/
+    private final double maxRate;
+    /**
+     * 数据报的最大长度
+     **/
+    private final int packetLength;
+    /**
+     * 当前速率
+     **/
+    private double rate;
+    /**
+     * 桶中的令牌，即当前可发送的字节数
+     **/
+    private double tokens;
+    private long last;
+
+    /**
+     * 初始化发送定速
+     *
+     * @param maxBytesPerSecond 每个连接的最大速率，字节/秒，0 表示不限
+     * @param packetLength      数据报的最大长度
+     */
+    public Pacer(long maxBytesPerSecond, int packetLength) {
+        this.maxRate = Math.max(0, maxBytesPerSecond) / 1_000_000.0;
+        this.packetLength = packetLength;
+        this.rate = this.maxRate;
+        this.tokens = MIN_BURST_PACKETS * packetLength;
+    }
+
+    /**
+     * 更新目标速率，超过最大速率时取最大速率
+     *
+     * @param bytesPerMicro 目标速率，字节/微秒，不大于 0 表示尚无速率
+     */
+    public void setRate(double bytesPerMicro) {
+        if (bytesPerMicro <= 0) {
+            rate = maxRate;
+        } else {
+            rate = maxRate > 0 ? Math.min(bytesPerMicro, maxRate) : bytesPerMicro;
+        }
+    }
+
+    /**
+     * 计算发送一个数据报之前还需等待的时间
+     *
+     * @param bytes 数据报长度
+     * @param now   当前时间
+     * @return 需等待的微秒数，可立即发送返回 0
+     */
+    public long delay(int bytes, long now) {
+        refill(now);
+        if (rate <= 0 || tokens >= bytes) {
+            return 0;
+        }
+        return (long) Math.ceil((bytes - tokens) / rate);
+    }
+
+    /**
+     * 发出数据报后扣除令牌，重传的数据报同样计入
+     *
+     * @param bytes 数据报长度
+     * @param now   当前时间
+     */
+    public void consume(int bytes, long now) {
+        refill(now);
+        if (rate > 0) {
+            tokens -= bytes;
+        }
+    }
+
+    private void refill(long now) {
+        if (now <= last) {
+            return;
+        }
+        if (rate > 0) {
+            double capacity = Math.max(MIN_BURST_PACKETS * packetLength, rate * BURST_TIME);
+            tokens = Math.min(capacity, tokens + (now - last) * rate);
+        }
+        last = now;
+    }
+
+    /**
+     * @return 当前速率，字节/秒，0 表示不限
+     */
+    public long getRate() {
+        return (long) (rate * 1_000_000);
+    }
+
+    @Override
+    public String toString() {
+        return "Pacer{" +
+                "rate = " + (rate > 0 ? getRate() + "B/s" : "-") +
+                ", maxRate = " + (maxRate > 0 ? (long) (maxRate * 1_000_000) + "B/s" : "-") +
+                '}';
+    }
+}
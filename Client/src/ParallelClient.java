@@ -0,0 +1,135 @@
+import java.io.File;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 并行发送一个大文件
+ * 文件按分块边界切成 K 个字节区间，每个区间由一个独立的 Client 从相邻的源端口发送，各自握手、发送与挥手，
+ * 各子流的校验和计算、编码与发送分布在多个线程上，也不再受单个连接窗口大小的限制
+ * 所有子流携带相同的传输标识，Server按区间偏移写入同一个文件
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/15 15:40
+ */
+public class ParallelClient implements Runnable {
+    private final String sourceIp;
+    /**
+     * 第一个子流的源端口，第 i 个子流使用 firstPort + i
+     **/
+    private final int firstPort;
+    private final String targetIp;
+    private final String targetPort;
+    private final String fileSource;
+    /**
+     * 子流个数
+     **/
+    private final int streams;
+    /**
+     * 各子流使用的拥塞控制算法名称
+     **/
+    private String congestion;
+    /**
+     * 每个子流的最大发送速率，字节/秒，0 表示不限
+     **/
+    private long maxRate;
+    /**
+     * 各子流分块大小的上限，区间按此对齐
+     **/
+    private int maxSegmentSize = UDPCodec.DEFAULT_SEGMENT_SIZE;
+    /**
+     * 各子流握手后是否探测路径MTU
+     **/
+    private boolean mtuProbing = true;
+
+    /**
+     * 初始化并行发送
+     *
+     * @param sourceIp   源IP
+     * @param firstPort  第一个子流的源端口
+     * @param targetIp   目的IP
+     * @param targetPort 目的端口
+     * @param fileSource 源文件路径
+     * @param streams    子流个数，文件分块数较少时相应减少
+     */
+    public ParallelClient(String sourceIp, String firstPort, String targetIp, String targetPort, String fileSource, int streams) {
+        this.sourceIp = sourceIp;
+        this.firstPort = Integer.parseInt(firstPort);
+        this.targetIp = targetIp;
+        this.targetPort = targetPort;
+        this.fileSource = fileSource;
+        this.streams = Math.max(1, Math.min(streams, 255));
+    }
+
+    /**
+     * 设置各子流的拥塞控制算法
+     *
+     * @param congestion newreno、cubic 或 bbr
+     */
+    public void setCongestionControl(String congestion) {
+        this.congestion = congestion;
+    }
+
+    /**
+     * 设置每个子流的最大发送速率
+     *
+     * @param maxRate 最大发送速率，字节/秒，0 表示不限
+     */
+    public void setMaxRate(long maxRate) {
+        this.maxRate = maxRate;
+    }
+
+    /**
+     * 设置各子流分块大小的上限
+     *
+     * @param maxSegmentSize 分块大小的上限，字节
+     */
+    public void setMaxSegmentSize(int maxSegmentSize) {
+        this.maxSegmentSize = Math.max(1, Math.min(maxSegmentSize, UDPCodec.MAX_DATA_LENGTH));
+    }
+
+    /**
+     * 设置各子流握手后是否探测路径MTU
+     *
+     * @param mtuProbing 是否探测路径MTU
+     */
+    public void setMtuProbing(boolean mtuProbing) {
+        this.mtuProbing = mtuProbing;
+    }
+
+    @Override
+    public void run() {
+        long start = System.currentTimeMillis();
+        long fileLength = new File(fileSource).length();
+        // 区间按分块大小的上限对齐，各子流探测后的分块大小不小于上限时，只有最后一个区间的最后一个分块不满
+        long segments = Math.max(1, UDPutils.segmentCount(fileLength, maxSegmentSize));
+        int count = (int) Math.min(streams, segments);
+        long perStream = (segments + count - 1) / count * maxSegmentSize;
+        int transferId = ThreadLocalRandom.current().nextInt();
+        Thread[] threads = new Thread[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                long offset = Math.min(i * perStream, fileLength);
+                long length = Math.min(perStream, fileLength - offset);
+                Client client = new Client(sourceIp, String.valueOf(firstPort + i), targetIp, targetPort, fileSource);
+                client.setSubFlow(new SubFlow(transferId, i, count, offset, length, fileLength));
+                if (congestion != null) {
+                    client.setCongestionControl(CongestionControl.of(congestion));
+                }
+                client.setMaxRate(maxRate);
+                client.setMaxSegmentSize(maxSegmentSize);
+                client.setMtuProbing(mtuProbing);
+                threads[i] = new Thread(client, "client-stream-" + i);
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.println("并行发送完毕，共 " + count + " 个子流，耗时：" + (System.currentTimeMillis() - start) + "ms");
+        } catch (UnknownHostException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,496 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+
+/**
+ * 发送窗口
+ * 按序号环形保存窗口内的数据报，窗口右移时才从文件中读取后续分块，
+ * 内存占用只与 窗口大小 x 分块大小 有关，与文件大小无关
+ * 每个分块的报头与数据区分别保存在预先分配的直接缓冲区中，文件内容只从页缓存读入一次，
+ * 发送时通过聚集写将报头与数据区一起交给 DatagramChannel
+ * 每个分块自身即是时间轮中的重传定时器节点
+ * ACK 中的累计确认与选择确认块共同更新窗口中各分块的确认状态，个别ACK丢失不影响后续确认
+ * 只发送落在对端通告窗口内的分块，窗口关闭时由发送方定时发送探测
+ * 缺口之上已有足够多的分块被确认时，判定缺口处的分块丢失，交由发送方快速重传
+ * 确认状态按记分板增量维护：已确认的连续区间由跳转指针直接跨过，丢包检测的游标只向前移动，
+ * 每个ACK的开销只与新确认的分块个数和选择确认块数有关，与窗口大小无关
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/04 14:37
+ */
+public class SendWindow {
+    /**
+     * 窗口中的一个分块
+     **/
+    public static class Segment extends TimerWheel.Timer {
+        /**
+         * 分块对应的报头字段，读入时计算好校验和
+         **/
+        final UDP udp = new UDP();
+        /**
+         * 已编码的报头
+         **/
+        final ByteBuffer header;
+        /**
+         * 数据区
+         **/
+        final ByteBuffer payload;
+        /**
+         * 聚集写使用的缓冲区组
+         **/
+        final ByteBuffer[] buffers;
+        /**
+         * 分块序号，从 0 开始
+         **/
+        long index;
+        /**
+         * 是否已经发送过
+         **/
+        boolean sent;
+        /**
+         * 是否已经收到ACK
+         **/
+        boolean acked;
+        /**
+         * 是否已被判定丢失并快速重传过，每个分块只快速重传一次，再次丢失由重传定时器处理
+         **/
+        boolean lost;
+        /**
+         * 已确认时，从本分块到 skip 之前的分块均已确认，重复报告的选择确认块据此跳过整段
+         **/
+        long skip;
+
+        Segment(ByteBuffer header, ByteBuffer payload) {
+            this.header = header;
+            this.payload = payload;
+            this.buffers = new ByteBuffer[]{header, payload};
+        }
+
+        public UDP getUdp() {
+            return udp;
+        }
+
+        /**
+         * @return 报头与数据区，已重置到起始位置，可直接用于聚集写
+         */
+        public ByteBuffer[] getBuffers() {
+            header.rewind();
+            payload.rewind();
+            return buffers;
+        }
+
+        /**
+         * 发送前改写报头中的时间戳，对端在ACK中回显，用于计算往返时延
+         * 校验和覆盖时间戳，改写后随之重新计算
+         *
+         * @param timestamp 发送时间戳
+         */
+        public void stamp(int timestamp) {
+            UDPCodec.putTimestamp(header, timestamp);
+            header.rewind();
+            payload.rewind();
+            UDPCodec.putChecksum(header, payload);
+        }
+
+        public long getIndex() {
+            return index;
+        }
+
+        public boolean isSent() {
+            return sent;
+        }
+
+        public void setSent(boolean sent) {
+            this.sent = sent;
+        }
+
+        public boolean isAcked() {
+            return acked;
+        }
+    }
+
+    /**
+     * 文件通道
+     **/
+    private final FileChannel source;
+    /**
+     * 分块大小
+     **/
+    private final int segmentSize;
+    /**
+     * 文件长度
+     **/
+    private final long fileLength;
+    /**
+     * 第一个分块在文件中的偏移，并行传输的子流只发送文件中的一段
+     **/
+    private final long baseOffset;
+    /**
+     * 分块总数
+     **/
+    private final long totalSegments;
+    /**
+     * 第一个分块的seq
+     **/
+    private final int firstSeq;
+    /**
+     * 环形保存窗口中的分块，下标为 index % 窗口大小
+     **/
+    private final Segment[] slots;
+    /**
+     * 窗口头部，即最早未确认分块的 index
+     **/
+    private long head;
+    /**
+     * 已读入分块的下一个 index
+     **/
+    private long end;
+    /**
+     * 尚未发送过的第一个分块的 index
+     **/
+    private long next;
+    /**
+     * 窗口头部之后已被选择确认的分块个数
+     **/
+    private int sacked;
+    /**
+     * 对端通告窗口的右边界，index 小于它的分块才能发送
+     **/
+    private long rightEdge;
+    /**
+     * 丢包检测的游标，游标之前未确认的分块都已判定丢失，游标只向前移动
+     **/
+    private long lostCursor;
+    /**
+     * 游标及其之后已确认的分块个数，即游标处分块之上已到达的分块个数
+     **/
+    private int ackedAbove;
+
+    /**
+     * 初始化发送窗口
+     *
+     * @param source       文件通道
+     * @param fileLength   文件长度
+     * @param firstSeq     第一个分块的seq
+     * @param windowSize   窗口大小
+     * @param segmentSize  分块大小
+     * @param sourcePort   源端口
+     * @param targetPort   目的端口
+     * @param connectionId 连接标识
+     */
+    public SendWindow(FileChannel source, long fileLength, int firstSeq, int windowSize, int segmentSize, int sourcePort, int targetPort, int connectionId) {
+        this(source, 0, fileLength, firstSeq, windowSize, segmentSize, sourcePort, targetPort, connectionId);
+    }
+
+    /**
+     * 初始化只发送文件中一段的发送窗口
+     *
+     * @param source       文件通道
+     * @param baseOffset   该段在文件中的偏移
+     * @param fileLength   该段的长度
+     * @param firstSeq     第一个分块的seq
+     * @param windowSize   窗口大小
+     * @param segmentSize  分块大小
+     * @param sourcePort   源端口
+     * @param targetPort   目的端口
+     * @param connectionId 连接标识
+     */
+    public SendWindow(FileChannel source, long baseOffset, long fileLength, int firstSeq, int windowSize, int segmentSize, int sourcePort, int targetPort, int connectionId) {
+        this.source = source;
+        this.segmentSize = segmentSize;
+        this.baseOffset = baseOffset;
+        this.fileLength = fileLength;
+        this.totalSegments = (fileLength + segmentSize - 1) / segmentSize;
+        this.firstSeq = firstSeq;
+        this.slots = new Segment[Math.max(1, windowSize)];
+        this.rightEdge = slots.length;
+        // 整个窗口共用一块直接内存，按分块切片
+        int slotSize = UDPCodec.HEADER_LENGTH + segmentSize;
+        ByteBuffer slab = ByteBuffer.allocateDirect(slots.length * slotSize);
+        for (int i = 0; i < slots.length; i++) {
+            slab.limit(i * slotSize + UDPCodec.HEADER_LENGTH).position(i * slotSize);
+            ByteBuffer header = slab.slice();
+            slab.limit((i + 1) * slotSize).position(i * slotSize + UDPCodec.HEADER_LENGTH);
+            ByteBuffer payload = slab.slice();
+            slots[i] = new Segment(header, payload);
+            slots[i].udp.setSource_Port(sourcePort);
+            slots[i].udp.setDestination_Port(targetPort);
+            slots[i].udp.setConnection_Id(connectionId);
+            slots[i].udp.setWindow_Size(Math.min(windowSize, 0xFFFF));
+        }
+    }
+
+    /**
+     * 将窗口中的空位读满，窗口右移后调用
+     *
+     * @throws IOException 读取文件异常
+     */
+    public void fill() throws IOException {
+        while (end < totalSegments && end - head < slots.length) {
+            Segment segment = slots[(int) (end % slots.length)];
+            int length = (int) Math.min(segmentSize, remainingBytes(end));
+            ByteBuffer payload = segment.payload;
+            payload.clear().limit(length);
+            long position = baseOffset + end * segmentSize;
+            while (payload.hasRemaining()) {
+                if (source.read(payload, position + payload.position()) < 0) {
+                    throw new IOException("文件长度与预期不符");
+                }
+            }
+            payload.flip();
+
+            UDP udp = segment.udp;
+            udp.setSequence_Number(firstSeq + (int) end);
+            // 最后一个分块带上 EOF 标志，接收方收齐它之前的全部分块即可结束接收
+            udp.setFlags(end == totalSegments - 1 ? UDP.FLAG_EOF : 0);
+            udp.setLength(UDPCodec.HEADER_LENGTH + length);
+            segment.header.clear();
+            UDPCodec.encodeHeader(udp, length, segment.header);
+            segment.header.flip();
+
+            segment.index = end;
+            segment.sent = false;
+            segment.acked = false;
+            segment.lost = false;
+            end++;
+        }
+    }
+
+    /**
+     * 取出下一个尚未发送过的分块，分块按序第一次发送
+     *
+     * @param limit 在途数据报个数上限，由拥塞窗口决定
+     * @return 尚未发送过的分块，窗口中没有、超出对端通告窗口或在途数据报已达上限则返回 null
+     */
+    public Segment pollUnsent(int limit) {
+        if (!hasUnsent(limit)) {
+            return null;
+        }
+        return slots[(int) (next++ % slots.length)];
+    }
+
+    /**
+     * @param limit 在途数据报个数上限
+     * @return 是否有可以立即发送的新分块
+     */
+    public boolean hasUnsent(int limit) {
+        return next < end && next < rightEdge && getInFlight() < limit;
+    }
+
+    /**
+     * 对端窗口关闭时取出下一个分块作为窗口探测，不受通告窗口限制
+     * 对端即使丢弃探测也会回复ACK告知最新的窗口
+     *
+     * @return 尚未发送过的分块，没有则返回 null
+     */
+    public Segment pollProbe() {
+        if (next >= end) {
+            return null;
+        }
+        return slots[(int) (next++ % slots.length)];
+    }
+
+    /**
+     * @return 还有未发送的分块，但对端通告的窗口已经用完
+     */
+    public boolean isWindowClosed() {
+        return next < end && next >= rightEdge;
+    }
+
+    /**
+     * 按ACK中通告的窗口更新右边界，右边界只右移不左移，对端缩小窗口时已发出的分块仍在其接收范围内
+     *
+     * @param ack    累计确认的ack序号
+     * @param window 对端通告的窗口，已按缩放位数还原
+     */
+    public void updateWindow(int ack, long window) {
+        rightEdge = Math.max(rightEdge, (long) (ack - firstSeq) + window);
+    }
+
+    /**
+     * 标记某个seq对应的分块已确认，并尝试右移窗口
+     *
+     * @param seq 被确认的数据报seq
+     * @return 该分块第一次被确认返回该分块，不在窗口内或重复确认返回 null
+     */
+    public Segment ack(int seq) {
+        long index = seq - firstSeq;
+        if (index < head || index >= next) {
+            return null;
+        }
+        Segment segment = slots[(int) (index % slots.length)];
+        if (segment.acked) {
+            return null;
+        }
+        markAcked(segment);
+        return segment;
+    }
+
+    /**
+     * 按ACK中的累计确认与选择确认块更新窗口，并取消新确认分块的重传定时器
+     *
+     * @param ack    收到的ACK，ack 字段为期待的下一个seq，其前的分块均已收到
+     * @param timers 重传定时器
+     * @return 本次新确认的分块个数
+     */
+    public int acknowledge(UDP ack, TimerWheel<? super Segment> timers) {
+        int count = ackRange(firstSeq, ack.getAck(), timers);
+        for (int i = 0; i < ack.getSack_Count(); i++) {
+            count += ackRange(ack.getSack_Start(i), ack.getSack_End(i), timers);
+        }
+        return count;
+    }
+
+    /**
+     * 找出判定为丢失的分块：其后已有 threshold 个分块被确认，或重复ACK已达阈值时的窗口头部分块
+     * 确认只会增加，一个分块一旦满足条件便一直满足，游标从上次停下的位置继续向前，每个分块最多被经过一次
+     *
+     * @param threshold 判定丢失所需的其后已确认分块个数
+     * @param headLost  是否收到足够多的重复ACK，窗口头部分块视为丢失
+     * @param lost      用于接收丢失分块的队列，由调用方复用
+     * @return 本次新判定丢失的分块个数
+     */
+    public int detectLost(int threshold, boolean headLost, Queue<Segment> lost) {
+        int count = 0;
+        if (headLost && head < next) {
+            Segment segment = slots[(int) (head % slots.length)];
+            if (!segment.acked && !segment.lost) {
+                segment.lost = true;
+                lost.offer(segment);
+                count++;
+            }
+        }
+        while (lostCursor < next) {
+            Segment segment = slots[(int) (lostCursor % slots.length)];
+            if (segment.acked) {
+                ackedAbove--;
+            } else if (ackedAbove < threshold) {
+                break;
+            } else if (!segment.lost) {
+                segment.lost = true;
+                lost.offer(segment);
+                count++;
+            }
+            lostCursor++;
+        }
+        return count;
+    }
+
+    /**
+     * 获取窗口中的分块
+     *
+     * @param index 分块序号，需在 [head, end) 之间
+     * @return 对应的分块
+     */
+    public Segment get(long index) {
+        return slots[(int) (index % slots.length)];
+    }
+
+    public long getHead() {
+        return head;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getNext() {
+        return next;
+    }
+
+    public long getRightEdge() {
+        return rightEdge;
+    }
+
+    /**
+     * @return 已发送但尚未确认的分块个数
+     */
+    public int getInFlight() {
+        return (int) (next - head) - sacked;
+    }
+
+    public long getTotalSegments() {
+        return totalSegments;
+    }
+
+    /**
+     * @return 所有分块都已确认返回true
+     */
+    public boolean isFinished() {
+        return head == totalSegments;
+    }
+
+    /**
+     * 确认 [start, end) 内的分块，已确认的连续区间沿跳转指针整段跨过
+     */
+    private int ackRange(int start, int end, TimerWheel<? super Segment> timers) {
+        int count = 0;
+        long index = Math.max(head, (long) (start - firstSeq));
+        long to = Math.min(next, (long) (end - firstSeq));
+        while (index < to) {
+            Segment segment = slots[(int) (index % slots.length)];
+            if (segment.acked) {
+                index = skipAcked(index);
+                continue;
+            }
+            markAcked(segment);
+            timers.cancel(segment);
+            count++;
+            index++;
+        }
+        return count;
+    }
+
+    /**
+     * 标记分块已确认，更新记分板，并尝试右移窗口
+     */
+    private void markAcked(Segment segment) {
+        segment.acked = true;
+        segment.skip = segment.index + 1;
+        sacked++;
+        if (segment.index >= lostCursor) {
+            ackedAbove++;
+        }
+        while (head < end && slots[(int) (head % slots.length)].acked) {
+            head++;
+            sacked--;
+        }
+        // 游标落在窗口之外时移到窗口头部，窗口内已确认的分块都在它之上
+        if (lostCursor < head) {
+            lostCursor = head;
+            ackedAbove = sacked;
+        }
+    }
+
+    /**
+     * 从一个已确认的分块出发，找到其后第一个未确认或尚未发送的分块，并把途经分块的跳转指针直接指向它
+     *
+     * @param index 已确认分块的 index，需不小于窗口头部
+     * @return 其后第一个未确认分块的 index，不超过 next
+     */
+    private long skipAcked(long index) {
+        long target = index;
+        while (target < next) {
+            Segment segment = slots[(int) (target % slots.length)];
+            if (!segment.acked) {
+                break;
+            }
+            target = Math.max(target + 1, segment.skip);
+        }
+        // 压缩路径，下次从途经的任何分块出发都只需跳一次
+        long current = index;
+        while (current < target) {
+            Segment segment = slots[(int) (current % slots.length)];
+            long following = Math.max(current + 1, segment.skip);
+            segment.skip = target;
+            current = following;
+        }
+        return Math.min(target, next);
+    }
+
+    private long remainingBytes(long index) {
+        return fileLength - index * segmentSize;
+    }
+}
@@ -0,0 +1,280 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 发送窗口测试：分块读入、累计确认与选择确认、丢失判定与seq回绕
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/14 11:10
+ */
+class SendWindowTest {
+    private static final int SEGMENT_SIZE = 100;
+
+    @TempDir
+    Path dir;
+    private FileChannel channel;
+    private final TimerWheel<SendWindow.Segment> timers = new TimerWheel<>(1000, 64, 0);
+    private final ArrayDeque<SendWindow.Segment> lost = new ArrayDeque<>();
+
+    @AfterEach
+    void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Test
+    void fillReadsSegmentsAndMarksLast() throws IOException {
+        byte[] content = content(SEGMENT_SIZE * 2 + 30);
+        SendWindow window = open(content, 7, 4);
+
+        assertEquals(3, window.getTotalSegments());
+        assertEquals(3, window.getEnd());
+        for (int i = 0; i < 3; i++) {
+            SendWindow.Segment segment = window.get(i);
+            UDP udp = segment.getUdp();
+            int length = Math.min(SEGMENT_SIZE, content.length - i * SEGMENT_SIZE);
+            assertEquals(7 + i, udp.getSequence_Number());
+            assertEquals(i == 2, udp.isEof());
+            assertEquals(UDPCodec.HEADER_LENGTH + length, udp.getLength());
+            ByteBuffer[] buffers = segment.getBuffers();
+            assertEquals(ByteBuffer.wrap(content, i * SEGMENT_SIZE, length), buffers[1]);
+
+            // 聚集写的报头与数据区合起来是一个校验和正确的数据报
+            segment.stamp(1000 + i);
+            buffers = segment.getBuffers();
+            ByteBuffer packet = ByteBuffer.allocate(buffers[0].remaining() + buffers[1].remaining());
+            packet.put(buffers[0]).put(buffers[1]).flip();
+            UDP decoded = UDPutils.decodeVerified(packet);
+            assertEquals(7 + i, decoded.getSequence_Number());
+            assertEquals(1000 + i, decoded.getTimestamp());
+        }
+    }
+
+    @Test
+    void windowSlidesAfterCumulativeAck() throws IOException {
+        SendWindow window = open(content(SEGMENT_SIZE * 10), 0, 4);
+        assertEquals(4, sendAll(window, 16));
+        assertFalse(window.hasUnsent(16));
+
+        assertEquals(2, window.acknowledge(ack(2), timers));
+        assertEquals(2, window.getHead());
+        window.fill();
+        assertEquals(6, window.getEnd());
+        assertEquals(4, window.get(4).getUdp().getSequence_Number());
+        assertEquals(0, sendAll(window, 16));
+        window.updateWindow(2, 4);
+        assertEquals(2, sendAll(window, 16));
+        assertEquals(4, window.getInFlight());
+
+        // 在途数据报个数受拥塞窗口限制
+        assertEquals(2, window.acknowledge(ack(4), timers));
+        window.fill();
+        window.updateWindow(4, 4);
+        assertEquals(1, sendAll(window, 3));
+        assertEquals(3, window.getInFlight());
+    }
+
+    @Test
+    void sackScoreboard() throws IOException {
+        SendWindow window = open(content(SEGMENT_SIZE * 10), 0, 16);
+        sendAll(window, 16);
+        for (int i = 0; i < 10; i++) {
+            timers.schedule(window.get(i), 5000);
+        }
+
+        UDP ack = ack(0);
+        ack.addSack(2, 5);
+        ack.addSack(7, 9);
+        assertEquals(5, window.acknowledge(ack, timers));
+        assertEquals(0, window.getHead());
+        assertEquals(5, window.getInFlight());
+        assertTrue(window.get(3).isAcked());
+        assertFalse(window.get(3).isScheduled());
+        assertTrue(window.get(5).isScheduled());
+        assertEquals(5, timers.size());
+
+        // 重复报告的选择确认块不再计数
+        assertEquals(0, window.acknowledge(ack, timers));
+
+        // 累计确认越过已选择确认的区间，窗口头部跳到第一个未确认的分块
+        ack = ack(3);
+        ack.addSack(5, 6);
+        assertEquals(3, window.acknowledge(ack, timers));
+        assertEquals(6, window.getHead());
+        assertEquals(2, window.getInFlight());
+
+        assertEquals(2, window.acknowledge(ack(10), timers));
+        assertTrue(window.isFinished());
+        assertEquals(0, window.getInFlight());
+        assertTrue(timers.isEmpty());
+    }
+
+    @Test
+    void ackOutsideWindowIsIgnored() throws IOException {
+        SendWindow window = open(content(SEGMENT_SIZE * 10), 100, 16);
+        sendAll(window, 5);
+
+        // 尚未发送的分块与窗口之前的seq都不会被确认
+        UDP ack = ack(100);
+        ack.addSack(105, 110);
+        ack.addSack(50, 99);
+        assertEquals(0, window.acknowledge(ack, timers));
+        assertNull(window.ack(106));
+        assertSame(window.get(1), window.ack(101));
+        assertNull(window.ack(101));
+        assertEquals(4, window.getInFlight());
+    }
+
+    @Test
+    void lostAfterThresholdOfLaterAcks() throws IOException {
+        SendWindow window = open(content(SEGMENT_SIZE * 10), 0, 16);
+        sendAll(window, 16);
+
+        UDP ack = ack(0);
+        ack.addSack(1, 3);
+        window.acknowledge(ack, timers);
+        assertEquals(0, window.detectLost(3, false, lost));
+
+        ack.addSack(4, 5);
+        window.acknowledge(ack, timers);
+        assertEquals(1, window.detectLost(3, false, lost));
+        assertEquals(0, lost.poll().getIndex());
+
+        // 每个分块只判定一次
+        assertEquals(0, window.detectLost(3, false, lost));
+        assertTrue(lost.isEmpty());
+
+        // 分块 3 之上只确认了 2 个，游标停在它之前
+        ack.clearSack();
+        ack.addSack(7, 8);
+        window.acknowledge(ack, timers);
+        assertEquals(0, window.detectLost(3, false, lost));
+
+        ack.clearSack();
+        ack.addSack(8, 10);
+        window.acknowledge(ack, timers);
+        assertEquals(3, window.detectLost(3, false, lost));
+        assertEquals(3, lost.poll().getIndex());
+        assertEquals(5, lost.poll().getIndex());
+        assertEquals(6, lost.poll().getIndex());
+    }
+
+    @Test
+    void duplicateAcksMarkHeadLost() throws IOException {
+        SendWindow window = open(content(SEGMENT_SIZE * 10), 0, 16);
+        sendAll(window, 16);
+        window.acknowledge(ack(2), timers);
+
+        assertEquals(1, window.detectLost(3, true, lost));
+        SendWindow.Segment head = lost.poll();
+        assertEquals(2, head.getIndex());
+        assertEquals(0, window.detectLost(3, true, lost));
+
+        // 窗口头部被确认后，新的头部仍可判定
+        window.acknowledge(ack(3), timers);
+        assertEquals(1, window.detectLost(3, true, lost));
+        assertEquals(3, lost.poll().getIndex());
+    }
+
+    @Test
+    void sequenceWrapsAroundIntegerMax() throws IOException {
+        int firstSeq = Integer.MAX_VALUE - 2;
+        SendWindow window = open(content(SEGMENT_SIZE * 8), firstSeq, 16);
+        sendAll(window, 16);
+        assertEquals(Integer.MAX_VALUE, window.get(2).getUdp().getSequence_Number());
+        assertEquals(Integer.MIN_VALUE, window.get(3).getUdp().getSequence_Number());
+
+        // 选择确认块跨过回绕点
+        UDP ack = ack(firstSeq);
+        ack.addSack(firstSeq + 1, firstSeq + 5);
+        assertEquals(4, window.acknowledge(ack, timers));
+        assertEquals(0, window.getHead());
+        assertEquals(1, window.detectLost(3, false, lost));
+
+        // 回绕后的累计确认
+        assertEquals(2, window.acknowledge(ack(firstSeq + 6), timers));
+        assertEquals(6, window.getHead());
+        assertSame(window.get(6), window.ack(Integer.MIN_VALUE + 3));
+        assertEquals(7, window.getHead());
+
+        window.updateWindow(firstSeq + 7, 20);
+        assertEquals(27, window.getRightEdge());
+    }
+
+    @Test
+    void rightEdgeFollowsAdvertisedWindow() throws IOException {
+        SendWindow window = open(content(SEGMENT_SIZE * 20), 0, 16);
+        assertEquals(16, sendAll(window, 32));
+        // 右边界只右移不左移
+        window.updateWindow(0, 3);
+        assertEquals(16, window.getRightEdge());
+
+        // 窗口右移但对端未通告新的窗口，只能发送窗口探测
+        window.acknowledge(ack(4), timers);
+        window.fill();
+        assertEquals(20, window.getEnd());
+        assertTrue(window.isWindowClosed());
+        assertEquals(0, sendAll(window, 32));
+        assertEquals(16, window.pollProbe().getIndex());
+
+        window.updateWindow(4, 16);
+        assertEquals(20, window.getRightEdge());
+        assertFalse(window.isWindowClosed());
+        assertEquals(3, sendAll(window, 32));
+        assertNull(window.pollProbe());
+    }
+
+    private SendWindow open(byte[] content, int firstSeq, int windowSize) throws IOException {
+        Path file = Files.createTempFile(dir, "send", ".bin");
+        Files.write(file, content);
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        SendWindow window = new SendWindow(channel, content.length, firstSeq, windowSize, SEGMENT_SIZE, 40000, 8080, 1);
+        window.fill();
+        return window;
+    }
+
+    private static int sendAll(SendWindow window, int limit) {
+        int count = 0;
+        SendWindow.Segment segment;
+        while ((segment = window.pollUnsent(limit)) != null) {
+            segment.setSent(true);
+            count++;
+        }
+        return count;
+    }
+
+    private static UDP ack(int ack) {
+        UDP udp = new UDP(8080, 40000);
+        udp.setFlags(UDP.FLAG_ACK);
+        udp.setAck(ack);
+        return udp;
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + 7);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,83 @@
+import java.net.InetSocketAddress;
+
+/**
+ * 连接标识
+ * 由Client的地址、端口与其随机生成的连接标识共同确定一个连接，作为连接表的键
+ * 连接表中的键不会改变；接收线程另持有一个查找用的键，每个数据报改写后查表，分发时不再为每个数据报创建键
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/12 14:08
+ */
+public final class ConnectionKey {
+    /**
+     * Client的地址与端口
+     **/
+    private InetSocketAddress address;
+    /**
+     * 报头中的连接标识
+     **/
+    private int connectionId;
+
+    public ConnectionKey(InetSocketAddress address, int connectionId) {
+        this.address = address;
+        this.connectionId = connectionId;
+    }
+
+    /**
+     * 查找用的空键，由 set 填入
+     */
+    ConnectionKey() {
+    }
+
+    /**
+     * 改写查找用的键，只能用于查表，不能放入连接表
+     *
+     * @param address      Client的地址与端口
+     * @param connectionId 报头中的连接标识
+     * @return 本对象
+     */
+    ConnectionKey set(InetSocketAddress address, int connectionId) {
+        this.address = address;
+        this.connectionId = connectionId;
+        return this;
+    }
+
+    /**
+     * @return 内容相同、可以放入连接表的键
+     */
+    ConnectionKey copy() {
+        return new ConnectionKey(address, connectionId);
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public int getConnectionId() {
+        return connectionId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ConnectionKey that = (ConnectionKey) o;
+        return connectionId == that.connectionId &&
+                address.equals(that.address);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * address.hashCode() + connectionId;
+    }
+
+    @Override
+    public String toString() {
+        return UDPutils.getStringIp(address.getAddress()) + ":" + address.getPort() + "#" + Integer.toHexString(connectionId);
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 连接表
+ * 按 (Client地址, 端口, 连接标识) 将数据报分发给对应的连接，收到SYN时创建新连接，连接关闭后移出
+ * 各连接的定时器由同一个时间轮管理
+ * 分发与定时器只能由一个线程调用，多线程的Server为每个线程建立各自的连接表，
+ * 连接表本身是并发的，其他线程可以随时查询连接数与各连接的状态
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/12 16:40
+ */
+public class ConnectionTable {
+    private final Map<ConnectionKey, ServerConnection> connections = new ConcurrentHashMap<>();
+    private final ServerOptions options;
+    private final PacketSender sender;
+    /**
+     * 各连接的定时器，时间单位为微秒，tick 为 1ms
+     **/
+    private final TimerWheel<ServerConnection> timers;
+    private final ArrayDeque<ServerConnection> expired = new ArrayDeque<>();
+    /**
+     * 报头解码对象，分发过程中复用
+     **/
+    private final UDP udp = new UDP();
+    /**
+     * 查找连接用的键，分发过程中复用
+     **/
+    private final ConnectionKey lookup = new ConnectionKey();
+
+    /**
+     * 初始化连接表
+     *
+     * @param options Server配置
+     * @param sender  连接回复数据报的发送方式
+     */
+    public ConnectionTable(ServerOptions options, PacketSender sender) {
+        this.options = options;
+        this.sender = sender;
+        this.timers = new TimerWheel<>(1000, 1024, now());
+    }
+
+    /**
+     * 将收到的数据报分发给对应的连接
+     *
+     * @param packet 数据报，从 position 到 limit，调用返回后即可复用
+     * @param from   来源地址
+     */
+    public void dispatch(ByteBuffer packet, InetSocketAddress from) {
+        // 校验和覆盖整个数据报，出错的数据报在解码之前丢弃，不会影响任何连接
+        if (!UDPutils.compareChecksum(packet) || UDPCodec.decodeHeader(packet, udp) == null) {
+            return;
+        }
+        long now = now();
+        ServerConnection connection = connections.get(lookup.set(from, udp.getConnection_Id()));
+        try {
+            if (connection == null) {
+                // 不属于任何连接的数据报，只有SYN才会建立新连接
+                if (!udp.isSyn()) {
+                    return;
+                }
+                // SYN的数据区携带文件大小与子流信息，拷贝出来交给新连接
+                byte[] data = new byte[packet.remaining()];
+                packet.get(data);
+                udp.setData(data);
+                ConnectionKey key = lookup.copy();
+                connection = new ServerConnection(key, udp, options, sender, now);
+                connections.put(key, connection);
+            } else {
+                connection.onPacket(udp, packet, now);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        if (connection != null) {
+            reschedule(connection);
+        }
+    }
+
+    /**
+     * 处理到期的连接定时器
+     */
+    public void expire() {
+        long now = now();
+        timers.expire(now, expired);
+        ServerConnection connection;
+        while ((connection = expired.poll()) != null) {
+            try {
+                connection.onTimer(now);
+            } catch (IOException e) {
+                e.printStackTrace();
+                connection.close();
+            }
+            reschedule(connection);
+        }
+    }
+
+    /**
+     * @return 距离下一个定时器到期的时间，微秒，没有定时器返回 Long.MAX_VALUE
+     */
+    public long nextTimeout() {
+        long next = timers.nextExpiry();
+        return next == Long.MAX_VALUE ? next : Math.max(0, next - now());
+    }
+
+    /**
+     * 关闭所有连接
+     */
+    public void closeAll() {
+        for (ServerConnection connection : connections.values()) {
+            timers.cancel(connection);
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    public Map<ConnectionKey, ServerConnection> getConnections() {
+        return Collections.unmodifiableMap(connections);
+    }
+
+    private void reschedule(ServerConnection connection) {
+        if (connection.isClosed()) {
+            timers.cancel(connection);
+            connections.remove(connection.getKey());
+        } else {
+            timers.schedule(connection, connection.getNextDeadline());
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000;
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * 事件循环Server
+ * 一个线程通过 Selector 等待非阻塞 DatagramChannel 可读，等待时长取连接表中最近的定时器，
+ * 可读时读空 socket 中的数据报并分发给各连接，之后处理到期的定时器
+ * 握手超时、延迟确认、空闲超时都由时间轮驱动，不再为每次超时抛出并捕获 SocketTimeoutException
+ * 数据报通过 BatchIO 按批收取，处理一批时产生的ACK先放入发送批，处理完后一起发出
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/14 09:40
+ */
+public class EventLoopServer implements Runnable {
+    /**
+     * 一批最多收发的数据报个数
+     **/
+    private static final int BATCH_SIZE = 32;
+    /**
+     * 监听地址
+     **/
+    private final InetSocketAddress address;
+    private final ServerOptions options;
+    /**
+     * 绑定前是否开启 SO_REUSEPORT，多个事件循环共用同一端口
+     **/
+    private final boolean reusePort;
+    private DatagramChannel channel;
+    private Selector selector;
+    private ConnectionTable table;
+    private volatile boolean running = true;
+
+    /**
+     * 初始化事件循环Server
+     *
+     * @param sourceIp   源IP
+     * @param sourcePort 源端口
+     * @param options    各连接共用的配置
+     */
+    public EventLoopServer(String sourceIp, String sourcePort, ServerOptions options) {
+        this(sourceIp, sourcePort, options, false);
+    }
+
+    /**
+     * 初始化事件循环Server，并指定是否与其他 socket 共用端口
+     *
+     * @param sourceIp   源IP
+     * @param sourcePort 源端口
+     * @param options    各连接共用的配置
+     * @param reusePort  是否开启 SO_REUSEPORT，由内核按地址哈希把数据报分给共用端口的各个 socket
+     */
+    public EventLoopServer(String sourceIp, String sourcePort, ServerOptions options, boolean reusePort) {
+        this.address = new InetSocketAddress(sourceIp, Integer.parseInt(sourcePort));
+        this.options = options;
+        this.reusePort = reusePort;
+    }
+
+    @Override
+    public void run() {
+        BufferPool pool = options.getPool();
+        ByteBuffer[] packets = new ByteBuffer[BATCH_SIZE];
+        SocketAddress[] sources = new SocketAddress[BATCH_SIZE];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = pool.acquire();
+        }
+        SendBatch batch = null;
+        try {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(address);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            BatchIO io = BatchIO.open(channel);
+            batch = new SendBatch(io, BATCH_SIZE, pool);
+            // 非阻塞发送在 socket 发送缓冲区已满时不会发出，与网络丢包一样由Client重传
+            table = new ConnectionTable(options, batch::addCopy);
+            System.out.println("事件循环Server在 " + address + " 等待连接-----");
+            while (running) {
+                long timeout = table.nextTimeout();
+                if (timeout == 0) {
+                    selector.selectNow();
+                } else {
+                    // select(0) 表示一直等待，没有定时器时正好如此
+                    selector.select(timeout == Long.MAX_VALUE ? 0 : Math.max(1, (timeout + 999) / 1000));
+                }
+                selector.selectedKeys().clear();
+                int count;
+                do {
+                    count = io.receive(packets, sources);
+                    for (int i = 0; i < count; i++) {
+                        table.dispatch(packets[i], (InetSocketAddress) sources[i]);
+                    }
+                    batch.flush();
+                } while (running && count == packets.length);
+                table.expire();
+                batch.flush();
+            }
+        } catch (IOException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            for (ByteBuffer packet : packets) {
+                pool.release(packet);
+            }
+            if (table != null) {
+                table.closeAll();
+            }
+            if (batch != null) {
+                System.out.println("事件循环Server  " + batch);
+            }
+            closeQuietly();
+        }
+    }
+
+    /**
+     * 停止事件循环
+     */
+    public void close() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return 当前连接数
+     */
+    public int getConnectionCount() {
+        return table == null ? 0 : table.size();
+    }
+
+    private void closeQuietly() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,276 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 一个连接接收文件时对每个数据报的处理
+ * 数据报交给接收窗口，按延迟确认规则回复ACK，由文件大小或 EOF 标志确定结束位置，并回复路径MTU探测报文
+ * 顺序执行的 Server 与事件驱动的 ServerConnection 共用，二者只负责取得数据报与推动定时器
+ * 时间单位均为微秒
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/13 16:40
+ */
+public class FileReceiver {
+    private final ReceiveWindow window;
+    /**
+     * 接收窗口写入的文件或输出流，结束接收时关闭
+     **/
+    private final Closeable file;
+    /**
+     * 本连接要接收的字节数，未知为 -1
+     **/
+    private final long length;
+    /**
+     * 延迟确认：每收到 ackEvery 个按序数据报，或第一个未确认数据报到达 ackDelay 毫秒后回复一次ACK
+     **/
+    private final int ackEvery;
+    private final int ackDelay;
+    private final int windowShift;
+    /**
+     * ACK报文，已填好端口与连接标识，回复时只修改seq、ack、窗口与时间戳
+     **/
+    private final UDP ackUdp;
+    /**
+     * 编码ACK的缓冲区，ACK不带数据区，整个接收过程中复用
+     **/
+    private final ByteBuffer ackBuffer = ByteBuffer.allocate(UDPCodec.HEADER_LENGTH + UDPCodec.SACK_BLOCK_LENGTH * UDPCodec.MAX_SACK_BLOCKS);
+    private final PacketSender sender;
+    private final SocketAddress target;
+    /**
+     * 日志前缀，即连接状态与连接标识
+     **/
+    private final String label;
+    private int seqNum;
+    /**
+     * 文件最后一个数据报之后的seq，收齐之前的全部数据报即文件接收完毕；未告知文件大小时由带 EOF 标志的数据报确定
+     **/
+    private int endSeq;
+    private boolean endKnown;
+    /**
+     * 分块大小，Client探测路径MTU结束时告知，未告知时为默认分块大小
+     **/
+    private int segmentSize = UDPCodec.DEFAULT_SEGMENT_SIZE;
+    /**
+     * 尚未确认的数据报个数、其中第一个的时间戳与延迟确认的截止时间
+     **/
+    private int pending;
+    private int pendingEcho;
+    private long ackDeadline;
+    private boolean closed;
+
+    /**
+     * 开始接收文件
+     *
+     * @param window      接收窗口，其 nextSeq 即第一个数据报的seq，按默认分块大小创建
+     * @param file        接收窗口写入的文件或输出流
+     * @param length      要接收的字节数，未知为 -1，此时由带 EOF 标志的数据报确定结束位置
+     * @param ackEvery    每收到多少个按序数据报回复一次ACK
+     * @param ackDelay    延迟确认的最长等待时间，毫秒
+     * @param windowShift 窗口缩放位数
+     * @param ackUdp      ACK报文，已填好端口与连接标识
+     * @param seqNum      第一个ACK的seq
+     * @param sender      数据报发送方式
+     * @param target      Client地址
+     * @param label       日志前缀
+     */
+    public FileReceiver(ReceiveWindow window, Closeable file, long length, int ackEvery, int ackDelay, int windowShift,
+                        UDP ackUdp, int seqNum, PacketSender sender, SocketAddress target, String label) {
+        this.window = window;
+        this.file = file;
+        this.length = length;
+        this.ackEvery = Math.max(1, ackEvery);
+        this.ackDelay = Math.max(0, ackDelay);
+        this.windowShift = windowShift;
+        this.ackUdp = ackUdp;
+        this.seqNum = seqNum;
+        this.sender = sender;
+        this.target = target;
+        this.label = label;
+        this.endKnown = length >= 0;
+        this.endSeq = window.getNextSeq() + (int) UDPutils.segmentCount(length, segmentSize);
+    }
+
+    /**
+     * 收到数据报，交给接收窗口并按延迟确认规则回复ACK
+     * 乱序、重复或补齐缺口的数据报立即确认，只有按序到达且没有缺口时才推迟确认，收齐文件后立即确认
+     *
+     * @param udp     已解码并通过校验的报头
+     * @param payload 数据区，从 position 到 limit
+     * @param now     当前时间
+     * @return 本数据报收齐了文件返回 true
+     * @throws IOException 写入文件或发送异常
+     */
+    public boolean onData(UDP udp, ByteBuffer payload, long now) throws IOException {
+        if (closed || !payload.hasRemaining()) {
+            return false;
+        }
+        int seq = udp.getSequence_Number();
+        int expected = window.getNextSeq();
+        boolean hole = window.getBuffered() > 0;
+        if (udp.isEof() && !endKnown) {
+            endSeq = seq + 1;
+            endKnown = true;
+        }
+        int result = window.offer(seq, payload);
+        if (result == ReceiveWindow.OUT_OF_WINDOW) {
+            // 超出窗口的数据报可能是Client的窗口探测，丢弃后立即回复当前窗口
+            if (UDPutils.DEBUG) {
+                System.out.println(label + "  接收 Seq = " + seq + "  超出接收窗口，丢弃，通告窗口 = " + window.getAvailable());
+            }
+            sendAck(udp.getTimestamp(), seq);
+            return false;
+        }
+        // 回显第一个未确认数据报的时间戳，Client测得的往返时延包含延迟确认的等待时间
+        if (pending == 0) {
+            pendingEcho = udp.getTimestamp();
+            ackDeadline = now + ackDelay * 1000L;
+        }
+        pending++;
+        boolean complete = isComplete();
+        if (result == ReceiveWindow.ACCEPTED && seq == expected && !hole && pending < ackEvery && !complete) {
+            if (UDPutils.DEBUG) {
+                System.out.println(label + "  接收 Seq = " + seq + "  延迟确认");
+            }
+            return false;
+        }
+        // 累计确认为期待的下一个seq，缺口之上已收到的区间放入选择确认块
+        if (UDPutils.DEBUG && result == ReceiveWindow.ACCEPTED) {
+            System.out.println(label + "  接收 Seq = " + seq + "  回复 Seq = " + seqNum + "，Ack = " + window.getNextSeq());
+        } else if (UDPutils.DEBUG) {
+            System.out.println(label + "  接收 Seq = " + seq + "  数据报重复，丢弃。");
+        }
+        sendAck(pendingEcho, seq);
+        return complete;
+    }
+
+    /**
+     * 收到路径MTU探测报文，回复收到的数据报长度
+     * 探测结束时采用Client选定的分块大小，结束位置随之改变；只能在收到第一个数据报之前调整，已收到数据报时仍回复原来的分块大小
+     *
+     * @param udp 已解码并通过校验的探测报文
+     * @throws IOException 发送异常
+     */
+    public void onProbe(UDP udp) throws IOException {
+        int probeAck = udp.getLength();
+        if (udp.isEof()) {
+            int proposed = Math.min(udp.getAck(), UDPCodec.MAX_DATA_LENGTH);
+            if (proposed > 0 && !closed && window.setSegmentSize(proposed)) {
+                segmentSize = proposed;
+                if (length >= 0) {
+                    endSeq = window.getNextSeq() + (int) UDPutils.segmentCount(length, segmentSize);
+                }
+            }
+            probeAck = segmentSize;
+            System.out.println(label + "  探测结束，分块大小为 " + segmentSize + " 字节");
+        } else if (UDPutils.DEBUG) {
+            System.out.println(label + "  接收探测报文 " + probeAck + " 字节");
+        }
+        ackUdp.clearSack();
+        ackUdp.setFlags(UDP.FLAG_ACK | UDP.FLAG_PROBE | (udp.isEof() ? UDP.FLAG_EOF : 0));
+        send(probeAck, udp.getTimestamp());
+        ackUdp.setFlags(UDP.FLAG_ACK);
+    }
+
+    /**
+     * 延迟确认到期时确认已收到的全部数据报
+     *
+     * @param now 当前时间
+     * @throws IOException 发送异常
+     */
+    public void onTimer(long now) throws IOException {
+        if (pending > 0 && now >= ackDeadline) {
+            if (UDPutils.DEBUG) {
+                System.out.println(label + "  延迟确认到期  回复 Seq = " + seqNum + "，Ack = " + window.getNextSeq() + "，合并确认 " + pending + " 个数据报");
+            }
+            sendAck(pendingEcho, window.getNextSeq());
+        }
+    }
+
+    /**
+     * 接收结束后又收到数据报，说明最后的ACK丢失，Client仍在重传，重新确认全部数据并通告整个窗口
+     *
+     * @param echo 回显数据报中的时间戳
+     * @throws IOException 发送异常
+     */
+    public void ackAll(int echo) throws IOException {
+        ackUdp.clearSack();
+        send(endSeq, echo);
+    }
+
+    /**
+     * 结束接收，刷入并关闭文件，归还窗口中缓存的缓冲区
+     *
+     * @throws IOException 写入文件异常
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pending = 0;
+        try {
+            window.flush();
+        } finally {
+            window.release();
+            file.close();
+        }
+    }
+
+    /**
+     * @return 已收齐结束位置之前的全部数据报
+     */
+    public boolean isComplete() {
+        return endKnown && window.getNextSeq() - endSeq >= 0;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return 有等待延迟确认的数据报
+     */
+    public boolean hasPendingAck() {
+        return pending > 0;
+    }
+
+    public long getAckDeadline() {
+        return ackDeadline;
+    }
+
+    public long getBytesWritten() {
+        return window.getBytesWritten();
+    }
+
+    /**
+     * @return 下一个回复报文的seq
+     */
+    public int getSeqNum() {
+        return seqNum;
+    }
+
+    /**
+     * 回复累计确认与选择确认块，并通告剩余窗口
+     */
+    private void sendAck(int echo, int recentSeq) throws IOException {
+        window.fillSack(ackUdp, recentSeq);
+        send(window.getNextSeq(), echo);
+        pending = 0;
+    }
+
+    private void send(int ack, int echo) throws IOException {
+        ackUdp.setSequence_Number(seqNum);
+        ackUdp.setAck(ack);
+        ackUdp.setWindow_Size(window.getAvailable() >> windowShift);
+        ackUdp.setTimestamp(RttEstimator.timestamp());
+        ackUdp.setTimestamp_Echo(echo);
+        ackBuffer.clear();
+        UDPCodec.encode(ackUdp, ackBuffer);
+        ackBuffer.flip();
+        sender.send(ackBuffer, target);
+        seqNum++;
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多连接Server
+ * 在一个端口上同时接收多个Client的文件，接收线程只负责从 socket 读出数据报，
+ * 按连接标识的哈希分给固定的工作线程，同一个连接始终由同一个工作线程处理，连接状态不需要加锁
+ * 各工作线程持有各自的连接表，独立推动其中连接的握手、接收文件与挥手，吞吐随Client数增加而提高
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/13 10:25
+ */
+public class MultiServer implements Runnable {
+    /**
+     * 每个工作线程的入站队列长度与一次取出的数据报个数
+     **/
+    private static final int QUEUE_CAPACITY = 512;
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * 工作线程，处理分给自己的连接
+     **/
+    private class Worker implements Runnable {
+        private final PacketQueue inbound = new PacketQueue(QUEUE_CAPACITY);
+        private final ConnectionTable table;
+
+        Worker(PacketSender sender) {
+            this.table = new ConnectionTable(options, sender);
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer[] packets = new ByteBuffer[BATCH_SIZE];
+            SocketAddress[] sources = new SocketAddress[BATCH_SIZE];
+            try {
+                while (running) {
+                    // 没有数据报时只等到最近的连接定时器到期
+                    long timeout = Math.min(table.nextTimeout(), 1_000_000);
+                    int count = inbound.drain(packets, sources, timeout, TimeUnit.MICROSECONDS);
+                    for (int i = 0; i < count; i++) {
+                        table.dispatch(packets[i], (InetSocketAddress) sources[i]);
+                        options.getPool().release(packets[i]);
+                        packets[i] = null;
+                        sources[i] = null;
+                    }
+                    table.expire();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                table.closeAll();
+                ByteBuffer rest;
+                while ((rest = inbound.poll()) != null) {
+                    options.getPool().release(rest);
+                }
+            }
+        }
+    }
+
+    /**
+     * 监听地址
+     **/
+    private final InetSocketAddress address;
+    private final ServerOptions options;
+    private final Worker[] workers;
+    private final Thread[] threads;
+    private DatagramChannel channel;
+    private volatile boolean running = true;
+
+    /**
+     * 初始化多连接Server
+     *
+     * @param sourceIp   源IP
+     * @param sourcePort 源端口
+     * @param options    各连接共用的配置
+     * @param workers    工作线程个数
+     */
+    public MultiServer(String sourceIp, String sourcePort, ServerOptions options, int workers) {
+        this.address = new InetSocketAddress(sourceIp, Integer.parseInt(sourcePort));
+        this.options = options;
+        this.workers = new Worker[Math.max(1, workers)];
+        this.threads = new Thread[this.workers.length];
+    }
+
+    @Override
+    public void run() {
+        try {
+            channel = DatagramChannel.open();
+            channel.bind(address);
+            // DatagramChannel 的发送是线程安全的，各工作线程共用同一个 channel 回复
+            PacketSender sender = (packet, target) -> channel.send(packet, target);
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Worker(sender);
+                threads[i] = new Thread(workers[i], "server-worker-" + i);
+                threads[i].start();
+            }
+            System.out.println("多连接Server在 " + address + " 等待连接，工作线程 " + workers.length + " 个-----");
+            receive();
+        } catch (IOException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * 停止接收，关闭 socket，各工作线程关闭自己的连接后退出
+     */
+    public void close() {
+        running = false;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Thread thread : threads) {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return 当前所有工作线程中的连接数
+     */
+    public int getConnectionCount() {
+        int count = 0;
+        for (Worker worker : workers) {
+            if (worker != null) {
+                count += worker.table.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 接收循环，读出数据报后按连接分给工作线程，缓冲区由工作线程处理完后归还
+     * 工作线程的队列已满时丢弃该数据报，由Client重传
+     */
+    private void receive() throws IOException {
+        BufferPool pool = options.getPool();
+        while (running) {
+            ByteBuffer packet = pool.acquire();
+            SocketAddress from;
+            try {
+                from = channel.receive(packet);
+            } catch (ClosedChannelException e) {
+                pool.release(packet);
+                return;
+            }
+            packet.flip();
+            // 只读出报头中的连接标识，完整解码留给工作线程
+            int connectionId = packet.remaining() >= UDPCodec.HEADER_LENGTH ? packet.getInt(UDPCodec.CONNECTION_ID_OFFSET) : 0;
+            int shard = Math.floorMod(31 * from.hashCode() + connectionId, workers.length);
+            if (!workers[shard].inbound.offer(packet, from)) {
+                pool.release(packet);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 有界的入站数据报队列
+ * 读取 socket 的线程放入数据报与其来源地址，处理连接的线程取出，二者保存在预先分配的环形数组中，
+ * 放入与取出都不会为数据报分配节点
+ * 队列已满时与网络丢包一样丢弃新到的数据报，处理线程停滞时读取线程不会无限占用缓冲池中的缓冲区
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/13 11:05
+ */
+public class PacketQueue {
+    /**
+     * 环形保存的数据报与来源地址，下标相同
+     **/
+    private final ByteBuffer[] packets;
+    private final SocketAddress[] sources;
+    /**
+     * 队首下标与当前个数
+     **/
+    private int head;
+    private int count;
+    /**
+     * 队列已满被丢弃的数据报个数
+     **/
+    private long dropped;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * 初始化队列
+     *
+     * @param capacity 最多保存的数据报个数
+     */
+    public PacketQueue(int capacity) {
+        this.packets = new ByteBuffer[Math.max(1, capacity)];
+        this.sources = new SocketAddress[packets.length];
+    }
+
+    /**
+     * 放入一个数据报，队列已满时不放入，由调用方归还缓冲区
+     *
+     * @param packet 数据报
+     * @param from   来源地址
+     * @return 放入返回 true，队列已满返回 false
+     */
+    public boolean offer(ByteBuffer packet, SocketAddress from) {
+        lock.lock();
+        try {
+            if (count == packets.length) {
+                dropped++;
+                return false;
+            }
+            int tail = (head + count) % packets.length;
+            packets[tail] = packet;
+            sources[tail] = from;
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出一个数据报，队列为空时最多等待 timeout
+     *
+     * @param timeout 等待时长
+     * @param unit    时间单位
+     * @return 数据报，超时返回 null
+     * @throws InterruptedException 等待时被中断
+     */
+    public ByteBuffer poll(long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long nanos = unit.toNanos(timeout);
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return take(null, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出一批数据报，队列为空时最多等待 timeout，有数据报时立即取出已到达的全部，最多填满数组
+     *
+     * @param batch   用于接收数据报的数组
+     * @param from    用于接收来源地址的数组，长度与 batch 相同
+     * @param timeout 等待时长
+     * @param unit    时间单位
+     * @return 取出的数据报个数，超时返回 0
+     * @throws InterruptedException 等待时被中断
+     */
+    public int drain(ByteBuffer[] batch, SocketAddress[] from, long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long nanos = unit.toNanos(timeout);
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return 0;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            int n = Math.min(count, batch.length);
+            for (int i = 0; i < n; i++) {
+                batch[i] = take(from, i);
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 不等待地取出队首的数据报，用于连接结束时归还队列中剩余的缓冲区
+     *
+     * @return 队首的数据报，队列为空返回 null
+     */
+    public ByteBuffer poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : take(null, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出队首，调用方需持有锁且队列不为空
+     */
+    private ByteBuffer take(SocketAddress[] from, int index) {
+        ByteBuffer packet = packets[head];
+        if (from != null) {
+            from[index] = sources[head];
+        }
+        packets[head] = null;
+        sources[head] = null;
+        head = (head + 1) % packets.length;
+        count--;
+        return packet;
+    }
+}
@@ -0,0 +1,22 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 数据报发送方式
+ * 连接只负责构造报文，由持有 socket 的一方决定如何发出，多个连接可共用同一个 socket
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/12 14:15
+ */
+public interface PacketSender {
+    /**
+     * 发送一个数据报
+     *
+     * @param packet 报文，从 position 到 limit
+     * @param target 目的地址
+     * @throws IOException 发送异常
+     */
+    void send(ByteBuffer packet, SocketAddress target) throws IOException;
+}
@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 接收窗口
+ * 按序到达的分块立即写入输出流，只有窗口内乱序到达的分块才会被缓存，
+ * 缺口补齐后连续的部分随即写出，内存占用只与窗口大小有关
+ * 若以 FileChannel 初始化，则每个分块按 (seq - 第一个seq) x 分块大小 直接写入文件对应位置，
+ * 窗口中只记录是否已接收，不再缓存任何数据
+ * 乱序分块拷贝到缓冲池取出的缓冲区中，写出后归还
+ * 回复ACK时以 nextSeq 作为累计确认，并将窗口内已接收的乱序区间作为选择确认块告知发送方
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/05 10:21
+ */
+public class ReceiveWindow {
+    /**
+     * 分块的接收结果
+     **/
+    public static final int ACCEPTED = 0;
+    public static final int DUPLICATE = 1;
+    public static final int OUT_OF_WINDOW = 2;
+
+    /**
+     * 按位置写入模式下标记窗口中已写入的分块
+     **/
+    private static final ByteBuffer WRITTEN = ByteBuffer.allocate(0);
+
+    /**
+     * 文件输出流，顺序写出模式使用
+     **/
+    private final OutputStream output;
+    /**
+     * 文件通道，按位置写入模式使用
+     **/
+    private final FileChannel channel;
+    /**
+     * 乱序分块使用的缓冲池
+     **/
+    private final BufferPool pool;
+    /**
+     * 第一个分块的seq
+     **/
+    private final int firstSeq;
+    /**
+     * 分块大小，按位置写入模式使用，Client探测路径MTU后告知
+     **/
+    private int segmentSize;
+    /**
+     * 第一个分块在文件中的偏移，按位置写入模式使用，并行传输的子流只写入文件中的一段
+     **/
+    private final long baseOffset;
+    /**
+     * 环形缓存乱序到达的分块，下标为 seq % 窗口大小
+     **/
+    private final ByteBuffer[] slots;
+    /**
+     * 期待接收的下一个seq，小于它的分块均已写出
+     **/
+    private int nextSeq;
+    /**
+     * 已写出的字节数
+     **/
+    private long bytesWritten;
+    /**
+     * 当前缓存的乱序分块个数
+     **/
+    private int buffered;
+
+    /**
+     * 初始化顺序写出的接收窗口
+     *
+     * @param output     文件输出流
+     * @param pool       乱序分块使用的缓冲池，缓冲区大小需不小于分块大小
+     * @param firstSeq   第一个分块的seq
+     * @param windowSize 窗口大小
+     */
+    public ReceiveWindow(OutputStream output, BufferPool pool, int firstSeq, int windowSize) {
+        this(output, null, pool, firstSeq, windowSize, 0, 0);
+    }
+
+    /**
+     * 初始化按位置写入的接收窗口，目标文件需已按文件大小预分配
+     *
+     * @param channel     文件通道
+     * @param firstSeq    第一个分块的seq
+     * @param windowSize  窗口大小
+     * @param segmentSize 分块大小
+     */
+    public ReceiveWindow(FileChannel channel, int firstSeq, int windowSize, int segmentSize) {
+        this(channel, firstSeq, windowSize, segmentSize, 0);
+    }
+
+    /**
+     * 初始化按位置写入的接收窗口，分块从文件的指定偏移开始写入
+     *
+     * @param channel     文件通道
+     * @param firstSeq    第一个分块的seq
+     * @param windowSize  窗口大小
+     * @param segmentSize 分块大小
+     * @param baseOffset  第一个分块在文件中的偏移
+     */
+    public ReceiveWindow(FileChannel channel, int firstSeq, int windowSize, int segmentSize, long baseOffset) {
+        this(null, channel, null, firstSeq, windowSize, segmentSize, baseOffset);
+    }
+
+    private ReceiveWindow(OutputStream output, FileChannel channel, BufferPool pool, int firstSeq, int windowSize, int segmentSize, long baseOffset) {
+        this.output = output;
+        this.channel = channel;
+        this.pool = pool;
+        this.firstSeq = firstSeq;
+        this.segmentSize = segmentSize;
+        this.baseOffset = baseOffset;
+        this.nextSeq = firstSeq;
+        this.slots = new ByteBuffer[Math.max(1, windowSize)];
+    }
+
+    /**
+     * 接收一个分块，若与已写出部分连续则立即写出，并将随后已缓存的连续分块一并写出
+     *
+     * @param seq  分块seq
+     * @param data 分块数据，从 position 到 limit，调用返回后即可复用
+     * @return ACCEPTED 新接收，DUPLICATE 重复分块，OUT_OF_WINDOW 超出窗口被丢弃
+     * @throws IOException 写入文件异常
+     */
+    public int offer(int seq, ByteBuffer data) throws IOException {
+        int offset = seq - nextSeq;
+        if (offset < 0) {
+            return DUPLICATE;
+        }
+        if (offset >= slots.length) {
+            return OUT_OF_WINDOW;
+        }
+        int slot = slot(seq);
+        if (slots[slot] != null) {
+            return DUPLICATE;
+        }
+        if (channel != null) {
+            // 按位置写入，乱序到达的分块只需记录已写入
+            writeAt(seq, data);
+            data = WRITTEN;
+        } else if (offset > 0) {
+            // 乱序分块拷贝到池中的缓冲区，接收缓冲区留给下一个数据报
+            ByteBuffer copy = pool.acquire();
+            copy.put(data).flip();
+            data = copy;
+        }
+        if (offset > 0) {
+            slots[slot] = data;
+            buffered++;
+            return ACCEPTED;
+        }
+        write(data);
+        // 缺口补齐，写出随后连续的缓存分块
+        slot = slot(nextSeq);
+        while (slots[slot] != null) {
+            ByteBuffer next = slots[slot];
+            slots[slot] = null;
+            buffered--;
+            write(next);
+            if (next != WRITTEN) {
+                pool.release(next);
+            }
+            slot = slot(nextSeq);
+        }
+        return ACCEPTED;
+    }
+
+    /**
+     * 将窗口中缺口之上已接收的区间作为选择确认块写入ACK
+     * 包含最近接收分块的区间放在第一块，其余按seq从小到大排列，超出块数上限的区间不再报告
+     *
+     * @param udp       待发送的ACK
+     * @param recentSeq 最近接收的分块seq
+     */
+    public void fillSack(UDP udp, int recentSeq) {
+        udp.clearSack();
+        if (buffered == 0) {
+            return;
+        }
+        int limit = nextSeq + slots.length;
+        int recentStart = nextSeq;
+        int offset = recentSeq - nextSeq;
+        if (offset > 0 && offset < slots.length && slots[slot(recentSeq)] != null) {
+            int start = recentSeq;
+            int end = recentSeq + 1;
+            while (start - 1 - nextSeq > 0 && slots[slot(start - 1)] != null) {
+                start--;
+            }
+            while (end - limit < 0 && slots[slot(end)] != null) {
+                end++;
+            }
+            udp.addSack(start, end);
+            recentStart = start;
+        }
+        // nextSeq 对应的槽一定为空，从它的下一个开始找连续区间
+        int seq = nextSeq + 1;
+        while (seq - limit < 0) {
+            if (slots[slot(seq)] == null) {
+                seq++;
+                continue;
+            }
+            int start = seq;
+            while (seq - limit < 0 && slots[slot(seq)] != null) {
+                seq++;
+            }
+            if (start != recentStart && !udp.addSack(start, seq)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 将缓冲的数据刷入文件
+     *
+     * @throws IOException 写入文件异常
+     */
+    public void flush() throws IOException {
+        if (output != null) {
+            output.flush();
+        }
+    }
+
+    /**
+     * 归还仍缓存在窗口中的缓冲区
+     */
+    public void release() {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null && slots[i] != WRITTEN) {
+                pool.release(slots[i]);
+            }
+            slots[i] = null;
+        }
+        buffered = 0;
+    }
+
+    /**
+     * 调整分块大小，只能在收到第一个分块之前调整，此后各分块的偏移已按原大小计算
+     *
+     * @param segmentSize 新的分块大小
+     * @return 调整成功返回 true，已收到分块时返回 false
+     */
+    public boolean setSegmentSize(int segmentSize) {
+        if (nextSeq != firstSeq || buffered > 0) {
+            return false;
+        }
+        this.segmentSize = segmentSize;
+        return true;
+    }
+
+    public int getNextSeq() {
+        return nextSeq;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getBuffered() {
+        return buffered;
+    }
+
+    /**
+     * 剩余可接收的数据报个数，即通告给发送方的窗口
+     * 发送方在 nextSeq + 该值 之内发送的数据报一定落在窗口中，乱序缓存越多，通告的窗口越小
+     *
+     * @return 窗口大小减去已缓存的乱序分块个数
+     */
+    public int getAvailable() {
+        return slots.length - buffered;
+    }
+
+    /**
+     * seq 对应的槽，按相对第一个分块的偏移取模，seq 回绕时相邻分块仍落在相邻的槽中
+     */
+    private int slot(int seq) {
+        return Math.floorMod(seq - firstSeq, slots.length);
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        if (output != null) {
+            output.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            bytesWritten += data.remaining();
+        }
+        nextSeq++;
+    }
+
+    private void writeAt(int seq, ByteBuffer data) throws IOException {
+        long position = baseOffset + (long) (seq - firstSeq) * segmentSize;
+        bytesWritten += data.remaining();
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+}
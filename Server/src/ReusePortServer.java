@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * 端口共用的多线程Server
+ * 在同一端口上开启 SO_REUSEPORT 打开多个 socket，每个 socket 由一个事件循环线程独立接收、处理与回复，
+ * 内核按Client的地址与端口哈希选择 socket，同一个连接的数据报始终到达同一个线程，各线程的连接表互不相交，无需加锁
+ * 解码、校验和与窗口处理分散到多个核上，不再受单个接收线程的限制
+ * 系统不支持 SO_REUSEPORT 时退回为单个事件循环
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/15 10:20
+ */
+public class ReusePortServer implements Runnable {
+    private final String sourceIp;
+    private final String sourcePort;
+    private final ServerOptions options;
+    /**
+     * 期望的 socket 个数
+     **/
+    private final int shards;
+    private volatile EventLoopServer[] loops = new EventLoopServer[0];
+
+    /**
+     * 初始化端口共用的多线程Server
+     *
+     * @param sourceIp   源IP
+     * @param sourcePort 源端口
+     * @param options    各连接共用的配置
+     * @param shards     共用端口的 socket 个数，即接收线程个数
+     */
+    public ReusePortServer(String sourceIp, String sourcePort, ServerOptions options, int shards) {
+        this.sourceIp = sourceIp;
+        this.sourcePort = sourcePort;
+        this.options = options;
+        this.shards = Math.max(1, shards);
+    }
+
+    /**
+     * @return 当前系统是否支持 SO_REUSEPORT
+     */
+    public static boolean isSupported() {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void run() {
+        boolean supported = isSupported();
+        int count = supported ? shards : 1;
+        if (!supported) {
+            System.out.println("系统不支持 SO_REUSEPORT，只使用一个 socket 接收-----");
+        }
+        EventLoopServer[] started = new EventLoopServer[count];
+        Thread[] threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            started[i] = new EventLoopServer(sourceIp, sourcePort, options, supported);
+            threads[i] = new Thread(started[i], "server-shard-" + i);
+        }
+        loops = started;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        System.out.println("端口共用Server在 " + sourceIp + ":" + sourcePort + " 上开启 " + count + " 个 socket-----");
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * 停止所有事件循环
+     */
+    public void close() {
+        for (EventLoopServer loop : loops) {
+            loop.close();
+        }
+    }
+
+    /**
+     * @return 当前所有 socket 上的连接数
+     */
+    public int getConnectionCount() {
+        int count = 0;
+        for (EventLoopServer loop : loops) {
+            count += loop.getConnectionCount();
+        }
+        return count;
+    }
+}
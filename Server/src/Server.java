@@ -1,9 +1,10 @@
 import java.io.*;
 import java.net.*;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 服务端 负责接收数据
@@ -20,7 +21,7 @@ public class Server implements Runnable {
     /**
      * 源端口
      **/
-    private final String sourcePort;
+    private final int sourcePort;
     /**
      * 目的IP
      **/
@@ -28,7 +29,7 @@ public class Server implements Runnable {
     /**
      * 目的端口
      **/
-    private String targetPort;
+    private int targetPort;
     /**
      * 源文件路径
      **/
@@ -45,18 +46,90 @@ public class Server implements Runnable {
      * 窗口大小
      **/
     private int windowSize;
+    /**
+     * 窗口缩放位数，报头中的 Window_Size 只有16位，通告的窗口右移该位数后填入，握手时告知Client
+     **/
+    private final int windowShift;
+    /**
+     * Client的连接标识，握手时记录，回复的报文中原样带回
+     **/
+    private int connectionId;
+    /**
+     * Client在握手时告知的文件大小，未告知为 -1
+     **/
+    private long fileLength = -1;
+    /**
+     * 并行传输时本连接对应的子流，为 null 时接收整个文件
+     **/
+    private SubFlow subFlow;
+    /**
+     * 共用 socket 时各连接共用的配置，用于确定并行传输的接收文件
+     **/
+    private final ServerOptions options;
+    /**
+     * 接收文件时对每个数据报的处理，接收结束后挥手时用于重新确认
+     **/
+    private FileReceiver fileReceiver;
+    /**
+     * 第三次握手的ACK丢失时代替它完成握手的探测报文或数据报，接收文件时先于后续数据报处理
+     **/
+    private ByteBuffer firstPacket;
+    /**
+     * 是否按位置直接写入文件，需Client在握手时告知文件大小
+     **/
+    private boolean positionalWrite;
+    /**
+     * 延迟确认：每收到 ackEvery 个按序数据报，或第一个未确认数据报到达 ackDelay 毫秒后回复一次ACK
+     * ackEvery 为 1 时每个数据报立即确认
+     **/
+    private final int ackEvery;
+    private final int ackDelay;
     /**
      * Client状态 默认为CLOSED
      **/
     private String state = "CLOSED";
     /**
-     * UDP Socket
+     * 连接的空闲超时，毫秒，接收文件或共用 socket 等待数据报时超过该时长仍未收到，即放弃该连接
      **/
-    DatagramSocket socket = null;
+    private static final int IDLE_TIMEOUT = 30000;
+    /**
+     * 握手与挥手等待回复的超时时间，以及挥手时等待Client最后确认的总时长，毫秒
+     * LAST-ACK 状态每次超时重发 FIN，超过总时长仍未收到确认即放弃，共用 socket 时连接随之释放
+     **/
+    private static final int CONTROL_TIMEOUT = 4000;
+    private static final int LAST_ACK_TIMEOUT = 12000;
+    /**
+     * UDP Channel，单独运行时为非阻塞模式，共用 socket 时为各连接共用的 channel，只用于回复
+     **/
+    DatagramChannel channel = null;
+    /**
+     * 单独运行时等待数据报使用的 Selector，按各状态的超时与延迟确认的截止时间限时等待，不再依赖 SocketTimeoutException
+     **/
+    private Selector selector;
     /**
      * 文件输入缓冲流
      **/
     BufferedOutputStream receiver = null;
+    /**
+     * 数据报缓冲池，接收循环、乱序分块与ACK构造共用
+     **/
+    private final BufferPool pool;
+    /**
+     * ACK报文，握手成功后按目的地址初始化，接收文件时交给 fileReceiver 回复
+     **/
+    private UDP ackUdp;
+    /**
+     * 共用 socket 时的入站队列，由读取 socket 的线程放入属于本连接的数据报，为 null 时直接读 socket
+     **/
+    private final PacketQueue inbound;
+    /**
+     * 共用 socket 时本连接的Client地址
+     **/
+    private final InetSocketAddress client;
+    /**
+     * 模拟丢包率
+     **/
+    private double lossRate = 0.1;
 
     private long now;
     private long start;
@@ -76,13 +149,13 @@ public class Server implements Runnable {
                     }
                 }
             }
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * 初始化Server 初始化Server的Socket，以及IO流，并且设置窗口大小为4
+     * 初始化Server 初始化Server的Socket，以及IO流，并且设置窗口大小为4，每个数据报立即确认
      *
      * @param sourceIp   源IP
      * @param sourcePort 源端口
@@ -90,28 +163,108 @@ public class Server implements Runnable {
      * @throws UnknownHostException 初始化异常
      */
     public Server(String sourceIp, String sourcePort, String fileSource) throws UnknownHostException {
+        this(sourceIp, sourcePort, fileSource, 1, 0);
+    }
+
+    /**
+     * 初始化Server，并开启延迟确认
+     * 乱序、重复或补齐缺口的数据报仍立即确认，保证Client能尽快发现丢包
+     *
+     * @param sourceIp   源IP
+     * @param sourcePort 源端口
+     * @param fileSource 源文件路径
+     * @param ackEvery   每收到多少个按序数据报回复一次ACK
+     * @param ackDelay   延迟确认的最长等待时间，毫秒
+     * @throws UnknownHostException 初始化异常
+     */
+    public Server(String sourceIp, String sourcePort, String fileSource, int ackEvery, int ackDelay) throws UnknownHostException {
+        this(sourceIp, sourcePort, fileSource, ackEvery, ackDelay, 8);
+    }
+
+    /**
+     * 初始化Server，并指定接收窗口大小
+     * 窗口超过16位时启用窗口缩放，窗口越大，Client可同时在途的数据报越多，乱序缓存占用的内存也越多
+     *
+     * @param sourceIp   源IP
+     * @param sourcePort 源端口
+     * @param fileSource 源文件路径
+     * @param ackEvery   每收到多少个按序数据报回复一次ACK
+     * @param ackDelay   延迟确认的最长等待时间，毫秒
+     * @param windowSize 接收窗口大小，即最多缓存的数据报个数
+     * @throws UnknownHostException 初始化异常
+     */
+    public Server(String sourceIp, String sourcePort, String fileSource, int ackEvery, int ackDelay, int windowSize) throws UnknownHostException {
+        this.ackEvery = Math.max(1, ackEvery);
+        this.ackDelay = Math.max(0, ackDelay);
         this.sourceIp = InetAddress.getByName(sourceIp);
-        this.sourcePort = sourcePort;
+        this.sourcePort = Integer.parseInt(sourcePort);
         this.fileSource = new File(fileSource);
-        this.windowSize = 8;
+        this.windowSize = Math.max(2, windowSize);
+        int shift = 0;
+        while ((this.windowSize >> shift) > 0xFFFF) {
+            shift++;
+        }
+        this.windowShift = shift;
+        this.pool = new BufferPool(UDPCodec.MAX_PACKET_LENGTH, this.windowSize * 2, false);
+        this.inbound = null;
+        this.client = null;
+        this.options = null;
         try {
-            socket = new DatagramSocket(Integer.parseInt(sourcePort));
-        } catch (SocketException e) {
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(this.sourcePort));
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
             e.printStackTrace();
-            socket.close();
         }
     }
 
+    /**
+     * 初始化共用 socket 的Server，只处理一个连接
+     * 数据报由读取 socket 的线程按连接标识放入入站队列，回复仍通过共用的 channel 发出，连接结束时不关闭 channel
+     *
+     * @param key     连接标识
+     * @param options 各连接共用的配置
+     * @param channel 共用的 channel
+     * @param inbound 本连接的入站队列，其中的缓冲区取自配置中的缓冲池，读出后归还
+     */
+    Server(ConnectionKey key, ServerOptions options, DatagramChannel channel, PacketQueue inbound) {
+        this.ackEvery = options.getAckEvery();
+        this.ackDelay = options.getAckDelay();
+        this.sourceIp = channel.socket().getLocalAddress();
+        this.sourcePort = channel.socket().getLocalPort();
+        this.fileSource = options.fileFor(key);
+        this.windowSize = options.getWindowSize();
+        this.windowShift = options.getWindowShift();
+        this.pool = options.getPool();
+        this.positionalWrite = options.isPositionalWrite();
+        this.lossRate = options.getLossRate();
+        this.channel = channel;
+        this.inbound = inbound;
+        this.client = key.getAddress();
+        this.options = options;
+    }
+
+    /**
+     * 设置接收模式，开启后按seq计算文件偏移直接写入，乱序到达的数据报无需缓存
+     *
+     * @param positionalWrite 是否按位置直接写入文件
+     */
+    public void setPositionalWrite(boolean positionalWrite) {
+        this.positionalWrite = positionalWrite;
+    }
+
     /**
      * Server开始等待Client的握手请求
      *
      * @return 握手成功返回 true 失败返回 false
      * @throws IOException 握手异常
-     * @throws ClassNotFoundException 握手异常
      */
-    public boolean shakeHands() throws IOException, ClassNotFoundException {
+    public boolean shakeHands() throws IOException {
         UDP shakeHandsUdp;
-        receiver = new BufferedOutputStream(new FileOutputStream(fileSource));
+        // 握手之后的第一个报文可能是填充到路径MTU的探测报文，缓冲区按最大数据报分配
+        ByteBuffer buffer = ByteBuffer.allocate(UDPCodec.MAX_PACKET_LENGTH);
         state = "LISTEN";
         while (true) {
             switch (state) {
@@ -120,32 +273,45 @@ public class Server implements Runnable {
                     seqNum = UDPutils.getSeqNum();
 
                     // 等待客户端的请求连接
-                    byte[] udpBytes1 = new byte[512];
-                    DatagramPacket receivePacket = new DatagramPacket(udpBytes1, 0, udpBytes1.length);
+                    SocketAddress from;
                     try {
-                        socket.setSoTimeout(0);
-                        socket.receive(receivePacket);
+                        from = receive(buffer, 0);
                     } catch (IOException e) {
+                        from = null;
+                    }
+                    if (from == null) {
+                        // socket 已关闭或共用 socket 的连接长时间空闲，不再等待
                         System.out.println(state + "  等待连接超时。");
+                        return false;
+                    }
+                    shakeHandsUdp = UDPutils.decodeVerified(buffer);
+                    if (shakeHandsUdp == null) {
+                        continue;
                     }
-                    shakeHandsUdp = (UDP) UDPutils.byteToObject(udpBytes1);
 
                     // 收到Client的握手请求，判断各项数值是否合理，合理即设置目的IP和目的端口，并且响应Client的请求，同时进入SYN-RCVD状态
                     //                                        不合理，重新进入 LISTEN 状态，等待Client重新请求握手
-                    ack = Integer.parseInt(shakeHandsUdp.getSequence_Number());
-                    if ("1".equals(shakeHandsUdp.getSyn())) {
+                    ack = shakeHandsUdp.getSequence_Number();
+                    if (shakeHandsUdp.isSyn()) {
                         System.out.println("开始与 " + UDPutils.getStringIp(sourceIp) + " 建立连接。");
                         System.out.println(state + "  接收：SYN=1，seq=" + ack + "  return successful");
-                        targetIp = InetAddress.getByName(shakeHandsUdp.getSource_IP());
+                        targetIp = ((InetSocketAddress) from).getAddress();
                         targetPort = shakeHandsUdp.getSource_Port();
+                        fileLength = UDPutils.bytesToLong(shakeHandsUdp.getData());
+                        subFlow = SubFlow.fromSynData(shakeHandsUdp.getData());
+                        connectionId = shakeHandsUdp.getConnection_Id();
+                        ackUdp = new UDP(sourcePort, targetPort, 0, 0, UDP.FLAG_ACK, windowSize >> windowShift, null);
+                        ackUdp.setConnection_Id(connectionId);
                         ack++;
 
-                        // 发送：SYN=1，ACK=1，seq=y，ack=x+1
-                        shakeHandsUdp = new UDP(sourcePort, targetPort, Integer.toString(seqNum), "1", Integer.toString(ack), "1", "0", Integer.toString(windowSize), null);
-                        byte[] udpBytes2 = UDPutils.objectToByte(shakeHandsUdp);
-                        DatagramPacket sendPacket = new DatagramPacket(udpBytes2, 0, udpBytes2.length, targetIp, Integer.parseInt(targetPort));
+                        // 发送：SYN=1，ACK=1，seq=y，ack=x+1，数据区告知延迟确认的最长等待时间与窗口缩放位数
+                        int echo = shakeHandsUdp.getTimestamp();
+                        byte[] options = ByteBuffer.allocate(Long.BYTES + 1).putLong(ackEvery > 1 ? ackDelay : 0).put((byte) windowShift).array();
+                        shakeHandsUdp = new UDP(sourcePort, targetPort, seqNum, ack, UDP.FLAG_ACK | UDP.FLAG_SYN, windowSize >> windowShift, options);
+                        shakeHandsUdp.setConnection_Id(connectionId);
+                        shakeHandsUdp.setTimestamp_Echo(echo);
                         System.out.println(state + "  发送：SYN=1，ACK=1，seq=" + seqNum + "，ack=" + ack);
-                        socket.send(sendPacket);
+                        send(UDPCodec.encode(shakeHandsUdp));
                         seqNum++;
                         ack++;
                         state = "SYN-RCVD";
@@ -157,24 +323,32 @@ public class Server implements Runnable {
 
                 case "SYN-RCVD":
                     // 等待Client的确认
-                    byte[] rec2 = new byte[512];
-                    DatagramPacket receivePacket2 = new DatagramPacket(rec2, 0, rec2.length);
-                    try {
-                        socket.setSoTimeout(4000);
-                        socket.receive(receivePacket2);
-                    } catch (SocketTimeoutException e) {
+                    if (receive(buffer, CONTROL_TIMEOUT) == null) {
                         System.out.println(state + "  等待ACK超时。。。连接失败。。。");
                         state = "LISTEN";
                         continue;
                     }
                     // 收到确认，判断各项数值是否符合要求,成功进入 ESTAB-LISHEN 状态
-                    shakeHandsUdp = (UDP) UDPutils.byteToObject(rec2);
-                    int recAck = Integer.parseInt(shakeHandsUdp.getAck());
-                    int recSeq = Integer.parseInt(shakeHandsUdp.getSequence_Number());
-                    if ("1".equals(shakeHandsUdp.getACK()) && seqNum == recAck) {
+                    int packetLength = buffer.limit();
+                    shakeHandsUdp = UDPutils.decodeVerified(buffer);
+                    if (shakeHandsUdp == null) {
+                        state = "LISTEN";
+                        continue;
+                    }
+                    int recAck = shakeHandsUdp.getAck();
+                    int recSeq = shakeHandsUdp.getSequence_Number();
+                    boolean sameConnection = shakeHandsUdp.getConnection_Id() == connectionId;
+                    if (shakeHandsUdp.isACK() && seqNum == recAck) {
                         System.out.println(state + "  接收：ACK=1，seq=" + recAck + "，ack=" + recSeq + "  request successful");
                         seqNum++;
                         state = "ESTAB-LISHEN";
+                    } else if (sameConnection && !shakeHandsUdp.isACK() && !shakeHandsUdp.isSyn() && !shakeHandsUdp.isFin()
+                            && (shakeHandsUdp.isProbe() || shakeHandsUdp.getData() != null)) {
+                        // 第三次握手的ACK丢失，但探测报文或数据报同样说明Client已收到SYN-ACK，留到接收文件时处理
+                        System.out.println(state + "  接收：seq=" + recSeq + "  代替第三次握手的ACK  request successful");
+                        firstPacket = buffer.limit(packetLength).position(0);
+                        seqNum++;
+                        state = "ESTAB-LISHEN";
                     } else {
                         System.out.println(state + "  接收：SYN=1，ACK=1，seq=" + recAck + "，ack=" + recSeq + "  request failed ");
                         state = "LISTEN";
@@ -193,176 +367,243 @@ public class Server implements Runnable {
     }
 
     /**
-     * Server接收Client发送的文件
+     * Client和Server采用滑动窗口方式发送文件
+     * 按序到达的数据立即写入文件，只缓存窗口内乱序到达的数据报
+     * 按位置写入模式下，文件按握手时告知的大小预分配，每个数据报直接写入其对应位置
+     * 握手时告知的文件大小确定了最后一个数据报的seq，最后一个数据报也带有 EOF 标志，收齐后立即确认并结束接收，
+     * 不再以一段时间未收到数据报判断文件结束，长时间未收到数据报视为传输中断
+     * 第一个数据报之前Client先探测路径MTU，分块大小以探测结束时告知的为准
      *
-     * @return 接收成功返回true，反之返回false
+     * @return 文件接收成功后返回true，反之返回false
+     * @throws IOException 接收文件异常
      */
-    public boolean receiveFile1() {
+    public boolean receiveFile2() throws IOException {
         System.out.println("\n等待接收文件。。。。");
-        byte[] data = new byte[0];
-        UDP udp;
+        UDP udp = new UDP();
         try {
-            receiver = new BufferedOutputStream(new FileOutputStream(fileSource));
-            while (true) {
-                byte[] temp = new byte[2060];
-                DatagramPacket receivePacket = new DatagramPacket(temp, 0, temp.length);
-                try {
-                    // 等待100ms，若100ms未再接收到文件，则说明文件传输结束，并且将数据输入文件中
-                    socket.setSoTimeout(100);
-                    socket.receive(receivePacket);
-                } catch (IOException e) {
-                    System.out.println(state + "  文件接收完毕！ 共接收了 " + data.length + " bit的数据。");
-                    System.out.println("接收成功！");
-                    // 数据写入文件
-                    receiver.write(data);
-                    receiver.flush();
-                    receiver.close();
-                    return true;
+            // 握手结束时 ack 即为第一个数据报的seq
+            Closeable file;
+            ReceiveWindow window;
+            if (subFlow != null) {
+                // 并行传输的子流只写入文件中自己的区间，共用 socket 时各子流写入同一个文件
+                File target = options != null ? options.fileFor(targetIp, subFlow.getTransferId()) : fileSource;
+                RandomAccessFile raf = new RandomAccessFile(target, "rw");
+                if (raf.length() != subFlow.getFileLength()) {
+                    raf.setLength(subFlow.getFileLength());
                 }
-                // 设置丢包率为0.1
-                if (Math.random() <= 0.1) {
+                window = new ReceiveWindow(raf.getChannel(), ack, windowSize, UDPCodec.DEFAULT_SEGMENT_SIZE, subFlow.getOffset());
+                file = raf;
+                System.out.println(state + "  " + subFlow);
+            } else if (positionalWrite && fileLength >= 0) {
+                RandomAccessFile raf = new RandomAccessFile(fileSource, "rw");
+                raf.setLength(fileLength);
+                window = new ReceiveWindow(raf.getChannel(), ack, windowSize, UDPCodec.DEFAULT_SEGMENT_SIZE);
+                file = raf;
+            } else {
+                receiver = new BufferedOutputStream(new FileOutputStream(fileSource));
+                window = new ReceiveWindow(receiver, pool, ack, windowSize);
+                file = receiver;
+            }
+            // 由文件大小确定结束位置，未告知文件大小时等待带 EOF 标志的数据报
+            long length = subFlow != null ? subFlow.getLength() : fileLength;
+            fileReceiver = new FileReceiver(window, file, length, ackEvery, ackDelay, windowShift, ackUdp, seqNum,
+                    this::send, new InetSocketAddress(targetIp, targetPort), state);
+            // 接收缓冲区取自缓冲池，整个接收过程中复用，数据区不再拷贝
+            // 握手时代替ACK的报文已在握手的缓冲区中，先处理它
+            boolean pending = firstPacket != null;
+            ByteBuffer receiveBuffer = pending ? firstPacket : pool.acquire();
+            firstPacket = null;
+            while (!fileReceiver.isComplete()) {
+                if (pending) {
+                    pending = false;
+                } else {
+                    // 有未确认的数据报时只等到延迟确认的截止时间
+                    int timeout = IDLE_TIMEOUT;
+                    if (fileReceiver.hasPendingAck()) {
+                        timeout = (int) Math.max(1, (fileReceiver.getAckDeadline() - System.nanoTime() / 1000 + 999) / 1000);
+                    }
+                    SocketAddress from;
+                    try {
+                        from = receive(receiveBuffer, timeout);
+                    } catch (IOException e) {
+                        break;
+                    }
+                    if (from == null) {
+                        if (fileReceiver.hasPendingAck()) {
+                            // 延迟确认到期，确认已收到的全部数据报
+                            fileReceiver.onTimer(System.nanoTime() / 1000);
+                            continue;
+                        }
+                        System.out.println(state + "  长时间未收到数据报，传输中断。");
+                        break;
+                    }
+                }
+                // 模拟丢包
+                if (Math.random() <= lossRate) {
                     continue;
                 }
-                udp = (UDP) UDPutils.byteToObject(temp);
-                if (udp == null) {
+                // 校验和覆盖整个数据报，出错的数据报不解码，其中的seq同样不可信
+                if (!UDPutils.compareChecksum(receiveBuffer)) {
+                    System.out.println(state + "  数据报出现错误丢弃，等待重传。");
                     continue;
                 }
-                temp = udp.getData();
-                if ((temp == null) || !UDPutils.compareChecksum(udp.getChecksum(), temp)) {
-                    System.out.println(state + "  接收 Seq = " + udp.getSequence_Number() + " 数据报出现错误丢弃，等待重传。");
+                if (UDPCodec.decodeHeader(receiveBuffer, udp) == null) {
                     continue;
                 }
-
-                System.out.println(state + "  接收 Seq = " + udp.getSequence_Number() + "  回复 Seq = " + seqNum + "，Ack = " + ack);
-                // 拼接文件块
-                data = UDPutils.joinByteArray(data, temp);
-
-                udp = new UDP(sourcePort, targetPort, Integer.toString(seqNum), "1", String.valueOf(ack), "0", "0", "4", null);
-                temp = UDPutils.objectToByte(udp);
-                DatagramPacket dp = new DatagramPacket(temp, 0, temp.length, targetIp, Integer.parseInt(targetPort));
-                socket.send(dp);
-                seqNum++;
-                ack++;
+                if (udp.isProbe()) {
+                    fileReceiver.onProbe(udp);
+                } else {
+                    fileReceiver.onData(udp, receiveBuffer, System.nanoTime() / 1000);
+                }
+            }
+            pool.release(receiveBuffer);
+            fileReceiver.close();
+            seqNum = fileReceiver.getSeqNum();
+            System.out.println(state + "  缓冲池命中 " + pool.getHits() + " 次，新分配 " + pool.getMisses() + " 次。");
+            if (!fileReceiver.isComplete()) {
+                System.out.println(state + "  文件未接收完整，只接收了 " + fileReceiver.getBytesWritten() + " bit的数据。");
+                return false;
             }
-        } catch (IOException | ClassNotFoundException e) {
+            System.out.println(state + "  文件接收完毕！ 共接收了 " + fileReceiver.getBytesWritten() + " bit的数据。");
+            System.out.println("接收成功！");
+            return true;
+        } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
-        return true;
+        return false;
     }
 
     /**
-     * Client和Server采用滑动窗口方式发送文件 固定窗口大小为4
+     * 向Client发出一个已编码的报文
      *
-     * @return 文件接收成功后返回true，反之返回false
-     * @throws IOException 接收文件异常
-     * @throws ClassNotFoundException 接收文件异常
+     * @param packet 报文
+     * @throws IOException 发送异常
      */
-    public boolean receiveFile2() throws IOException, ClassNotFoundException {
-        System.out.println("\n等待接收文件。。。。");
-        byte[] data = new byte[0];
-        UDP udp;
-        try {
-            receiver = new BufferedOutputStream(new FileOutputStream(fileSource));
-            Map<Integer, byte[]> map = new HashMap<>();
+    private void send(byte[] packet) throws IOException {
+        send(ByteBuffer.wrap(packet), new InetSocketAddress(targetIp, targetPort));
+    }
+
+    /**
+     * 发出一个已编码的数据报，非阻塞模式下发送缓冲区已满时与网络丢包一样丢弃
+     *
+     * @param packet 报文，从 position 到 limit
+     * @param target 目的地址
+     * @throws IOException 发送异常
+     */
+    private void send(ByteBuffer packet, SocketAddress target) throws IOException {
+        channel.send(packet, target);
+    }
+
+    /**
+     * 接收一个数据报，返回时 buffer 从 0 到 limit 为数据报内容
+     * 单独运行时 channel 为非阻塞模式，暂无数据报时由 Selector 等到 channel 可读或超时
+     * 共用 socket 时从入站队列取出，拷贝到 buffer 后归还缓冲区，来源即本连接的Client地址
+     *
+     * @param buffer  接收缓冲区
+     * @param timeout 等待时间，毫秒，为 0 时一直等待；共用 socket 时最多等待连接空闲超时
+     * @return 数据报的来源地址，超时返回 null
+     * @throws IOException 接收异常
+     */
+    private SocketAddress receive(ByteBuffer buffer, int timeout) throws IOException {
+        buffer.clear();
+        if (inbound == null) {
+            long deadline = System.nanoTime() + timeout * 1_000_000L;
             while (true) {
-                byte[] temp = new byte[2060];
-                DatagramPacket receivePacket = new DatagramPacket(temp, 0, temp.length);
-                try {
-                    // 等待100ms，若100ms未再接收到文件，则说明文件传输结束，并且将数据输入文件中
-                    socket.setSoTimeout(100);
-                    socket.receive(receivePacket);
-                } catch (IOException e) {
-                    break;
+                SocketAddress from = channel.receive(buffer);
+                if (from != null) {
+                    buffer.flip();
+                    return from;
                 }
-                // 设置丢包率为0.1
-                if (Math.random() <= 0.1) {
-                    continue;
-                }
-                udp = (UDP) UDPutils.byteToObject(temp);
-                if (udp == null) {
-                    continue;
-                }
-                temp = udp.getData();
-                int seq = Integer.parseInt(udp.getSequence_Number());
-                // 利用校验和判断接收到的数据报中数据是否发生错误
-                if ((temp == null) || !UDPutils.compareChecksum(udp.getChecksum(), temp)) {
-                    System.out.println(state + "  接收 Seq = " + seq + " 数据报出现错误丢弃，等待重传。");
-                    continue;
-                }
-                int ack = seq + 1;
-
-                // 判断该数据报是否已经接收过了，接收过，数据报丢弃只回复ACK，反之保存将数据报放入缓存，再回复ACK
-                if (!map.containsKey(seq)) {
-                    map.put(seq, temp);
-                    System.out.println(state + "  接收 Seq = " + seq + "  回复 Seq = " + seqNum + "，Ack = " + ack);
-                } else {
-                    System.out.println(state + "  接收 Seq = " + seq + "  数据报重复，丢弃。");
+                long wait = 0;
+                if (timeout > 0) {
+                    wait = (deadline - System.nanoTime() + 999_999) / 1_000_000;
+                    if (wait <= 0) {
+                        return null;
+                    }
                 }
-                udp = new UDP(sourcePort, targetPort, Integer.toString(seqNum), "1", String.valueOf(ack), "0", "0", "4", null);
-                temp = UDPutils.objectToByte(udp);
-                DatagramPacket dp = new DatagramPacket(temp, 0, temp.length, targetIp, Integer.parseInt(targetPort));
-                socket.send(dp);
-                seqNum++;
+                selector.select(wait);
+                selector.selectedKeys().clear();
             }
-            // 按顺序获取接收数据报的seq序号
-            Set<Integer> keySet = map.keySet();
-            // 获取seq的迭代器
-            // 将接收到的数据报中数据按照顺序输入文件中
-            for (Integer sq : keySet) {
-                byte[] dataTemp = map.get(sq);
-                data = UDPutils.joinByteArray(data, dataTemp);
-            }
-            System.out.println(state + "  文件接收完毕！ 共接收了 " + data.length + " bit的数据。");
-            System.out.println("接收成功！");
-            // 数据写入文件
-            receiver.write(data);
-            receiver.flush();
-            receiver.close();
-            return true;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
         }
-        return false;
+        ByteBuffer packet;
+        try {
+            packet = inbound.poll(timeout == 0 ? IDLE_TIMEOUT : timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("连接被中断");
+        }
+        if (packet == null) {
+            return null;
+        }
+        packet.limit(packet.position() + Math.min(packet.remaining(), buffer.remaining()));
+        buffer.put(packet).flip();
+        pool.release(packet);
+        return client;
+    }
+
+    /**
+     * 连接结束，单独运行时关闭 Selector 与 channel，共用 socket 时 channel 由各连接共用，不关闭
+     *
+     * @throws IOException 关闭异常
+     */
+    private void closeChannel() throws IOException {
+        if (inbound == null) {
+            selector.close();
+            channel.close();
+        }
     }
 
     /**
      * 文件接收完毕，等待Client断开连接
      *
      * @return 断开成功返回true，反之返回false
-     * @throws ClassNotFoundException 挥手异常
      * @throws IOException 挥手异常
      */
-    public boolean waveHands() throws ClassNotFoundException, IOException {
+    public boolean waveHands() throws IOException {
         System.out.println("\n等待Client发起断开连接请求。。。");
         UDP udp;
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        // 回复FIN时第一个报文的seq，Client重发FIN时以相同的seq重发
+        int finSeq = seqNum;
+        long lastAckDeadline = 0;
         while (true) {
             switch (state) {
                 case "ESTAB-LISHEN":
                     // 文件接收完毕，服务器等待客户端发出断开连接请求
-                    byte[] udpBytes1 = new byte[512];
-                    DatagramPacket receivePacket = new DatagramPacket(udpBytes1, 0, udpBytes1.length);
+                    SocketAddress from;
                     try {
-                        socket.setSoTimeout(0);
-                        socket.receive(receivePacket);
+                        from = receive(buffer, 0);
                     } catch (IOException e) {
+                        from = null;
+                    }
+                    if (from == null) {
                         System.out.println(state + "  socket出现异常");
+                        return false;
+                    }
+                    udp = UDPutils.decodeVerified(buffer);
+                    if (udp == null) {
+                        continue;
                     }
-                    udp = (UDP) UDPutils.byteToObject(udpBytes1);
-                    ack = Integer.parseInt(udp.getSequence_Number());
+                    ack = udp.getSequence_Number();
 
                     // 接收后，查看报文是否合理，合理即发送应答，并且进入 CLOSE-WAIT 状态
-                    if ("1".equals(udp.getFin())) {
+                    if (udp.isFin()) {
                         System.out.println(state + "  开始与 " + UDPutils.getStringIp(sourceIp) + " 断开建立连接。");
                         System.out.println(state + "  接收：FIN=1，seq=" + ack + "  return successful");
                         ack++;
-                        udp = new UDP(sourcePort, targetPort, Integer.toString(seqNum), "1", Integer.toString(ack), "0", "0", "0", null);
-                        byte[] udpBytes2 = UDPutils.objectToByte(udp);
-                        DatagramPacket sendPacket = new DatagramPacket(udpBytes2, 0, udpBytes2.length, targetIp, Integer.parseInt(targetPort));
+                        finSeq = seqNum;
+                        udp = new UDP(sourcePort, targetPort, seqNum, ack, UDP.FLAG_ACK, 0, null);
+                        udp.setConnection_Id(connectionId);
                         System.out.println(state + "  发送：ACK=1，seq=" + seqNum + "，ack=" + ack);
-                        socket.send(sendPacket);
+                        send(UDPCodec.encode(udp));
 
                         state = "CLOSE-WAIT";
                         seqNum++;
+                    } else if (!udp.isSyn() && !udp.isACK()) {
+                        // 最后的ACK丢失时Client仍在重传数据报，重新确认全部数据
+                        fileReceiver.ackAll(udp.getTimestamp());
+                        seqNum = fileReceiver.getSeqNum();
+                        continue;
                     } else {
                         System.out.println(state + "  接收：FIN=1，seq=" + ack + "  return failed");
                         state = "ESTAB-LISHEN";
@@ -371,44 +612,59 @@ public class Server implements Runnable {
 
                 case "CLOSE-WAIT":
                     // 进入 CLOSE-WAIT 状态，向Client发起断开连接请求，同时进入 LAST-ACK 状态，等待Client的确认
-                    udp = new UDP(sourcePort, targetPort, Integer.toString(seqNum), "1", Integer.toString(ack), "0", "1", "0", null);
-                    byte[] udpBytes3 = UDPutils.objectToByte(udp);
-                    DatagramPacket sendPacket2 = new DatagramPacket(udpBytes3, 0, udpBytes3.length, targetIp, Integer.parseInt(targetPort));
+                    udp = new UDP(sourcePort, targetPort, seqNum, ack, UDP.FLAG_ACK | UDP.FLAG_FIN, 0, null);
+                    udp.setConnection_Id(connectionId);
                     System.out.println(state + "  发送：FIN=1，ACK=1，seq=" + seqNum + "，ack=" + ack);
-                    socket.send(sendPacket2);
+                    send(UDPCodec.encode(udp));
                     state = "LAST-ACK";
                     seqNum++;
+                    lastAckDeadline = System.currentTimeMillis() + LAST_ACK_TIMEOUT;
 
                 case "LAST-ACK":
-                    // 进入 LAST-ACK状态，等待Client的确认
-
-                    byte[] udpBytes4 = new byte[512];
-                    DatagramPacket receivePacket2 = new DatagramPacket(udpBytes4, 0, udpBytes4.length);
-                    try {
-                        socket.setSoTimeout(4000);
-                        socket.receive(receivePacket2);
-                    } catch (SocketTimeoutException e) {
-                        System.out.println(state + "  等待ACK超时。。。连接断开失败。。。");
-                        state = "LAST-ACK";
+                    // 进入 LAST-ACK状态，等待Client的确认，超时按原来的seq重发 FIN，超过总时长即放弃
+                    int wait = (int) Math.min(CONTROL_TIMEOUT, lastAckDeadline - System.currentTimeMillis());
+                    if (wait <= 0 || receive(buffer, wait) == null) {
+                        if (System.currentTimeMillis() >= lastAckDeadline) {
+                            System.out.println(state + "  等待ACK超时。。。连接断开失败。。。");
+                            closeChannel();
+                            return false;
+                        }
+                        udp = new UDP(sourcePort, targetPort, seqNum - 1, ack, UDP.FLAG_ACK | UDP.FLAG_FIN, 0, null);
+                        udp.setConnection_Id(connectionId);
+                        System.out.println(state + "  等待ACK超时，重发：FIN=1，ACK=1，seq=" + (seqNum - 1) + "，ack=" + ack);
+                        send(UDPCodec.encode(udp));
                         continue;
                     }
 
                     // 判断 Client 的确认，合理则进入CLOSED状态，此次连接结束
-                    udp = (UDP) UDPutils.byteToObject(udpBytes4);
-                    int recAck = Integer.parseInt(udp.getAck());
-                    int recSeq = Integer.parseInt(udp.getSequence_Number());
-                    if ("1".equals(udp.getACK()) && seqNum == recAck) {
+                    udp = UDPutils.decodeVerified(buffer);
+                    if (udp == null) {
+                        continue;
+                    }
+                    int recAck = udp.getAck();
+                    int recSeq = udp.getSequence_Number();
+                    if (udp.isACK() && seqNum == recAck) {
                         System.out.println(state + "  接收：ACK=1，seq=" + recSeq + "，ack=" + recAck + "  request successful");
                         state = "CLOSED";
                         seqNum++;
+                    } else if (udp.isFin()) {
+                        // Client 未收到回复，重新发起了断开请求，按原来的seq重发 ACK 与 FIN
+                        System.out.println(state + "  接收：FIN=1，seq=" + recSeq + "  重新回复");
+                        seqNum = finSeq;
+                        udp = new UDP(sourcePort, targetPort, seqNum, ack, UDP.FLAG_ACK, 0, null);
+                        udp.setConnection_Id(connectionId);
+                        send(UDPCodec.encode(udp));
+                        seqNum++;
+                        state = "CLOSE-WAIT";
+                        continue;
                     } else {
+                        // 无关或迟到的报文，继续等待确认，不延长等待的总时长
                         System.out.println(state + "  接收：ACK=1，seq=" + recSeq + "，ack=" + recAck + "  request failed ");
-                        state = "ESTAB-LISHEN";
                         continue;
                     }
 
                 case "CLOSED":
-                    socket.close();
+                    closeChannel();
                     return true;
                 default:
                     break;
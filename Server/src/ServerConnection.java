@@ -0,0 +1,350 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Server端的一个连接
+ * 将 Server 中顺序执行的握手、接收文件、挥手改写为事件驱动的状态机，
+ * 由收到的数据报与定时器推动状态变化，不在 receive 上阻塞，一个线程可以同时推动多个连接
+ * 连接自身即是时间轮中的定时器节点，到期时间为延迟确认、握手超时、空闲超时中最近的一个
+ * 时间单位均为微秒
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/12 15:02
+ */
+public class ServerConnection extends TimerWheel.Timer {
+    /**
+     * 握手等待ACK的超时时间、传输中的空闲超时时间、挥手等待ACK的超时时间
+     **/
+    private static final long HANDSHAKE_TIMEOUT = 4_000_000;
+    private static final long IDLE_TIMEOUT = 30_000_000;
+    private static final long LAST_ACK_TIMEOUT = 12_000_000;
+
+    private final ConnectionKey key;
+    private final ServerOptions options;
+    private final PacketSender sender;
+    /**
+     * 数据ACK报文，整个连接中复用
+     **/
+    private final UDP ackUdp = new UDP();
+    /**
+     * 连接状态，与 Server 中的状态名称一致
+     **/
+    private String state = "LISTEN";
+    /**
+     * Server的初始seq，Client重发SYN时据此重新构造SYN-ACK
+     **/
+    private final int initialSeq;
+    private int seqNum;
+    private int ack;
+    /**
+     * Client在握手时告知的文件大小，未告知为 -1
+     **/
+    private long fileLength = -1;
+    /**
+     * 并行传输时本连接对应的子流，为 null 时接收整个文件
+     **/
+    private SubFlow subFlow;
+    /**
+     * 回复FIN时第一个报文的seq，Client重发FIN时以相同的seq重发 ACK 与 FIN
+     **/
+    private int finSeq;
+    /**
+     * 接收文件时对每个数据报的处理，握手完成时创建，接收结束后仍用于重新确认
+     **/
+    private FileReceiver receiver;
+    /**
+     * 当前状态的超时时间
+     **/
+    private long stateDeadline;
+    private long startTime;
+
+    /**
+     * 收到SYN，建立连接并回复SYN-ACK
+     *
+     * @param key     连接标识
+     * @param syn     Client的SYN
+     * @param options Server配置
+     * @param sender  数据报发送方式
+     * @param now     当前时间
+     * @throws IOException 发送异常
+     */
+    public ServerConnection(ConnectionKey key, UDP syn, ServerOptions options, PacketSender sender, long now) throws IOException {
+        this.key = key;
+        this.options = options;
+        this.sender = sender;
+        this.initialSeq = UDPutils.getSeqNum();
+        this.startTime = now;
+        ackUdp.setSource_Port(syn.getDestination_Port());
+        ackUdp.setDestination_Port(key.getAddress().getPort());
+        ackUdp.setFlags(UDP.FLAG_ACK);
+        ackUdp.setConnection_Id(key.getConnectionId());
+        System.out.println("开始与 " + key + " 建立连接。");
+        onSyn(syn, now);
+    }
+
+    /**
+     * 处理收到的数据报
+     *
+     * @param udp     已解码的报头
+     * @param payload 数据区，从 position 到 limit
+     * @param now     当前时间
+     * @throws IOException 写入文件或发送异常
+     */
+    public void onPacket(UDP udp, ByteBuffer payload, long now) throws IOException {
+        switch (state) {
+            case "SYN-RCVD":
+                if (udp.isSyn()) {
+                    // Client 未收到 SYN-ACK，重新发起了握手
+                    onSyn(udp, now);
+                } else if (udp.isACK() && udp.getAck() == seqNum) {
+                    System.out.println(state + "  " + key + "  接收：ACK=1，seq=" + udp.getSequence_Number() + "，ack=" + udp.getAck() + "  request successful");
+                    establish(now);
+                } else if (udp.isProbe() && !udp.isACK()) {
+                    // 第三次握手的ACK丢失，但探测报文同样说明Client已收到SYN-ACK
+                    establish(now);
+                    onProbe(udp, now);
+                } else if (!udp.isACK() && !udp.isFin() && payload.hasRemaining()) {
+                    // 第三次握手的ACK丢失，但数据报同样说明Client已收到SYN-ACK
+                    establish(now);
+                    onData(udp, payload, now);
+                }
+                break;
+            case "ESTAB-LISHEN":
+                if (udp.isFin()) {
+                    finish(now);
+                    seqNum = receiver.getSeqNum();
+                    onFin(udp, now);
+                } else if (udp.isProbe()) {
+                    onProbe(udp, now);
+                } else if (!udp.isSyn() && !udp.isACK()) {
+                    onData(udp, payload, now);
+                }
+                break;
+            case "LAST-ACK":
+                if (udp.isFin()) {
+                    // Client 等待ACK超时，重新发起了断开请求，按原来的seq重发
+                    seqNum = finSeq;
+                    onFin(udp, now);
+                } else if (udp.isACK() && udp.getAck() == seqNum) {
+                    System.out.println(state + "  " + key + "  接收：ACK=1，seq=" + udp.getSequence_Number() + "，ack=" + udp.getAck() + "  request successful");
+                    seqNum++;
+                    state = "CLOSED";
+                    System.out.println(state + "  与 " + key + " 成功断开连接！");
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 定时器到期
+     *
+     * @param now 当前时间
+     * @throws IOException 发送异常
+     */
+    public void onTimer(long now) throws IOException {
+        if (receiver != null) {
+            receiver.onTimer(now);
+        }
+        if (now >= stateDeadline) {
+            switch (state) {
+                case "SYN-RCVD":
+                    System.out.println(state + "  " + key + "  等待ACK超时。。。连接失败。。。");
+                    break;
+                case "ESTAB-LISHEN":
+                    System.out.println(state + "  " + key + "  长时间未收到数据报，连接断开。");
+                    finish(now);
+                    break;
+                case "LAST-ACK":
+                    System.out.println(state + "  " + key + "  等待ACK超时。。。连接断开失败。。。");
+                    break;
+                default:
+                    break;
+            }
+            close();
+        }
+    }
+
+    /**
+     * @return 下一次需要调用 onTimer 的时间
+     */
+    public long getNextDeadline() {
+        return receiver != null && receiver.hasPendingAck() ? Math.min(receiver.getAckDeadline(), stateDeadline) : stateDeadline;
+    }
+
+    /**
+     * 释放连接占用的文件与缓冲区，进入 CLOSED 状态
+     */
+    public void close() {
+        try {
+            if (receiver != null) {
+                receiver.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        state = "CLOSED";
+    }
+
+    public boolean isClosed() {
+        return "CLOSED".equals(state);
+    }
+
+    public ConnectionKey getKey() {
+        return key;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * 收到SYN：记录文件大小，回复 SYN=1，ACK=1，seq=y，ack=x+1，数据区告知延迟确认的最长等待时间与窗口缩放位数
+     */
+    private void onSyn(UDP syn, long now) throws IOException {
+        ack = syn.getSequence_Number();
+        System.out.println(state + "  " + key + "  接收：SYN=1，seq=" + ack + "  return successful");
+        fileLength = UDPutils.bytesToLong(syn.getData());
+        subFlow = SubFlow.fromSynData(syn.getData());
+        ack++;
+        seqNum = initialSeq;
+        byte[] synOptions = ByteBuffer.allocate(Long.BYTES + 1)
+                .putLong(options.getAckEvery() > 1 ? options.getAckDelay() : 0)
+                .put((byte) options.getWindowShift()).array();
+        UDP synAck = new UDP(ackUdp.getSource_Port(), ackUdp.getDestination_Port(), seqNum, ack, UDP.FLAG_ACK | UDP.FLAG_SYN,
+                options.getWindowSize() >> options.getWindowShift(), synOptions);
+        synAck.setConnection_Id(key.getConnectionId());
+        synAck.setTimestamp_Echo(syn.getTimestamp());
+        System.out.println(state + "  " + key + "  发送：SYN=1，ACK=1，seq=" + seqNum + "，ack=" + ack);
+        send(synAck);
+        seqNum++;
+        ack++;
+        state = "SYN-RCVD";
+        stateDeadline = now + HANDSHAKE_TIMEOUT;
+    }
+
+    /**
+     * 握手完成，打开接收文件，握手结束时 ack 即为第一个数据报的seq
+     */
+    private void establish(long now) throws IOException {
+        seqNum++;
+        state = "ESTAB-LISHEN";
+        stateDeadline = now + IDLE_TIMEOUT;
+        startTime = now;
+        Closeable file;
+        ReceiveWindow window;
+        if (subFlow != null) {
+            // 各子流分别打开同一个文件，只写入自己的区间，文件大小已正确时不再修改
+            RandomAccessFile raf = new RandomAccessFile(options.fileFor(key.getAddress().getAddress(), subFlow.getTransferId()), "rw");
+            if (raf.length() != subFlow.getFileLength()) {
+                raf.setLength(subFlow.getFileLength());
+            }
+            window = new ReceiveWindow(raf.getChannel(), ack, options.getWindowSize(), UDPCodec.DEFAULT_SEGMENT_SIZE, subFlow.getOffset());
+            file = raf;
+        } else if (options.isPositionalWrite() && fileLength >= 0) {
+            RandomAccessFile raf = new RandomAccessFile(options.fileFor(key), "rw");
+            raf.setLength(fileLength);
+            window = new ReceiveWindow(raf.getChannel(), ack, options.getWindowSize(), UDPCodec.DEFAULT_SEGMENT_SIZE);
+            file = raf;
+        } else {
+            BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(options.fileFor(key)));
+            window = new ReceiveWindow(output, options.getPool(), ack, options.getWindowSize());
+            file = output;
+        }
+        long length = subFlow != null ? subFlow.getLength() : fileLength;
+        receiver = new FileReceiver(window, file, length, options.getAckEvery(), options.getAckDelay(), options.getWindowShift(),
+                ackUdp, seqNum, sender, key.getAddress(), state + "  " + key);
+        System.out.println(state + "  与 " + key + " 连接建立成功！" + (subFlow != null ? "  " + subFlow : ""));
+        if (receiver.isComplete()) {
+            finish(now);
+        }
+    }
+
+    /**
+     * 收到数据报，交给 FileReceiver 处理，收齐文件后关闭文件
+     * 接收结束后再收到数据报说明最后的ACK丢失，重新确认全部数据
+     */
+    private void onData(UDP udp, ByteBuffer payload, long now) throws IOException {
+        stateDeadline = now + IDLE_TIMEOUT;
+        if (receiver.isClosed()) {
+            receiver.ackAll(udp.getTimestamp());
+            return;
+        }
+        // 设置丢包率
+        if (Math.random() < options.getLossRate()) {
+            return;
+        }
+        // 校验和已在分发时校验
+        if (receiver.onData(udp, payload, now)) {
+            finish(now);
+        }
+    }
+
+    /**
+     * 收到路径MTU探测报文，交给 FileReceiver 回复
+     */
+    private void onProbe(UDP udp, long now) throws IOException {
+        stateDeadline = now + IDLE_TIMEOUT;
+        // 设置丢包率
+        if (Math.random() < options.getLossRate()) {
+            return;
+        }
+        receiver.onProbe(udp);
+    }
+
+    /**
+     * 收到FIN：回复 ACK=1，再发起 FIN=1，ACK=1，进入 LAST-ACK 状态等待Client确认
+     */
+    private void onFin(UDP fin, long now) throws IOException {
+        System.out.println(state + "  " + key + "  接收：FIN=1，seq=" + fin.getSequence_Number() + "  return successful");
+        ack = fin.getSequence_Number() + 1;
+        finSeq = seqNum;
+        UDP udp = new UDP(ackUdp.getSource_Port(), ackUdp.getDestination_Port(), seqNum, ack, UDP.FLAG_ACK, 0, null);
+        udp.setConnection_Id(key.getConnectionId());
+        System.out.println(state + "  " + key + "  发送：ACK=1，seq=" + seqNum + "，ack=" + ack);
+        send(udp);
+        seqNum++;
+
+        state = "CLOSE-WAIT";
+        udp = new UDP(ackUdp.getSource_Port(), ackUdp.getDestination_Port(), seqNum, ack, UDP.FLAG_ACK | UDP.FLAG_FIN, 0, null);
+        udp.setConnection_Id(key.getConnectionId());
+        System.out.println(state + "  " + key + "  发送：FIN=1，ACK=1，seq=" + seqNum + "，ack=" + ack);
+        send(udp);
+        seqNum++;
+        state = "LAST-ACK";
+        stateDeadline = now + LAST_ACK_TIMEOUT;
+    }
+
+    /**
+     * 文件接收完毕，刷入并关闭文件，此后的回复从 FileReceiver 之后的seq继续
+     */
+    private void finish(long now) throws IOException {
+        if (receiver.isClosed()) {
+            return;
+        }
+        receiver.close();
+        if (receiver.isComplete()) {
+            System.out.println(state + "  " + key + "  文件接收完毕！ 共接收了 " + receiver.getBytesWritten() + " bit的数据，耗时：" + (now - startTime) / 1000 + "ms");
+        } else {
+            System.out.println(state + "  " + key + "  文件未接收完整，只接收了 " + receiver.getBytesWritten() + " bit的数据。");
+        }
+    }
+
+    /**
+     * 在缓冲池取出的缓冲区中编码报文并发出
+     */
+    private void send(UDP udp) throws IOException {
+        BufferPool pool = options.getPool();
+        ByteBuffer buffer = pool.acquire();
+        UDPCodec.encode(udp, buffer);
+        buffer.flip();
+        sender.send(buffer, key.getAddress());
+        pool.release(buffer);
+    }
+}
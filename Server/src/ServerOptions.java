@@ -0,0 +1,134 @@
+import java.io.File;
+import java.net.InetAddress;
+
+/**
+ * 多连接Server的公共配置
+ * 每个连接接收的文件保存在接收目录下，以Client的地址、端口与连接标识命名
+ * 并行传输的各子流来自不同端口，共同写入以Client地址与传输标识命名的文件
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/12 14:31
+ */
+public class ServerOptions {
+    /**
+     * 接收目录
+     **/
+    private final File directory;
+    /**
+     * 接收窗口大小与窗口缩放位数
+     **/
+    private final int windowSize;
+    private final int windowShift;
+    /**
+     * 延迟确认：每 ackEvery 个按序数据报或 ackDelay 毫秒回复一次ACK
+     **/
+    private final int ackEvery;
+    private final int ackDelay;
+    /**
+     * 是否按位置直接写入文件
+     **/
+    private boolean positionalWrite;
+    /**
+     * 模拟丢包率，与 Server 一致默认为 0.1
+     **/
+    private double lossRate = 0.1;
+    /**
+     * 所有连接共用的数据报缓冲池
+     **/
+    private final BufferPool pool;
+
+    /**
+     * 初始化配置，每个数据报立即确认，窗口大小为 8
+     *
+     * @param directory 接收目录
+     */
+    public ServerOptions(String directory) {
+        this(directory, 1, 0, 8);
+    }
+
+    /**
+     * 初始化配置
+     *
+     * @param directory  接收目录
+     * @param ackEvery   每收到多少个按序数据报回复一次ACK
+     * @param ackDelay   延迟确认的最长等待时间，毫秒
+     * @param windowSize 每个连接的接收窗口大小
+     */
+    public ServerOptions(String directory, int ackEvery, int ackDelay, int windowSize) {
+        this.directory = new File(directory);
+        this.ackEvery = Math.max(1, ackEvery);
+        this.ackDelay = Math.max(0, ackDelay);
+        this.windowSize = Math.max(2, windowSize);
+        int shift = 0;
+        while ((this.windowSize >> shift) > 0xFFFF) {
+            shift++;
+        }
+        this.windowShift = shift;
+        this.pool = new BufferPool(UDPCodec.MAX_PACKET_LENGTH, 1024, false);
+    }
+
+    /**
+     * 确定连接接收的文件
+     *
+     * @param key 连接标识
+     * @return 接收目录下以连接标识命名的文件
+     */
+    public File fileFor(ConnectionKey key) {
+        String name = UDPutils.getStringIp(key.getAddress().getAddress()) + "_" + key.getAddress().getPort()
+                + "_" + Integer.toHexString(key.getConnectionId()) + ".dat";
+        return new File(directory, name.replace(':', '-'));
+    }
+
+    /**
+     * 确定并行传输接收的文件
+     *
+     * @param client     Client的地址
+     * @param transferId 传输标识
+     * @return 接收目录下以Client地址与传输标识命名的文件
+     */
+    public File fileFor(InetAddress client, int transferId) {
+        String name = UDPutils.getStringIp(client) + "_" + Integer.toHexString(transferId) + ".dat";
+        return new File(directory, name.replace(':', '-'));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getWindowShift() {
+        return windowShift;
+    }
+
+    public int getAckEvery() {
+        return ackEvery;
+    }
+
+    public int getAckDelay() {
+        return ackDelay;
+    }
+
+    public boolean isPositionalWrite() {
+        return positionalWrite;
+    }
+
+    public void setPositionalWrite(boolean positionalWrite) {
+        this.positionalWrite = positionalWrite;
+    }
+
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    public BufferPool getPool() {
+        return pool;
+    }
+}
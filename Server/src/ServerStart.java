@@ -2,13 +2,38 @@ import java.net.UnknownHostException;
 
 /**
  * 启动Server
+ * 无参数时只接收一个Client的文件，参数为 multi、loop、thread 或 reuse 时以对应方式同时接收多个Client的文件，
+ * 第二个参数可指定接收目录
  *
  * @author : LiuYi
  * @version : 2.0
  * @date : 2021/11/24 21:15
  */
 public class ServerStart {
+    /**
+     * 多连接时的默认接收目录
+     **/
+    private static final String DIRECTORY = "E:\\非编程\\学校作业（word）\\网络协议分析\\大作业\\ServerFIle";
+
     public static void main(String[] args) throws UnknownHostException {
-        new Thread(new Server("127.0.0.1", "2222", "E:\\非编程\\学校作业（word）\\网络协议分析\\大作业\\ServerFIle\\test.txt")).start();
+        String mode = args.length > 0 ? args[0] : "single";
+        ServerOptions options = new ServerOptions(args.length > 1 ? args[1] : DIRECTORY);
+        switch (mode) {
+            case "multi":
+                new Thread(new MultiServer("127.0.0.1", "2222", options, Runtime.getRuntime().availableProcessors())).start();
+                break;
+            case "loop":
+                new Thread(new EventLoopServer("127.0.0.1", "2222", options)).start();
+                break;
+            case "reuse":
+                new Thread(new ReusePortServer("127.0.0.1", "2222", options, Runtime.getRuntime().availableProcessors())).start();
+                break;
+            case "thread":
+                new Thread(new VirtualThreadServer("127.0.0.1", "2222", options)).start();
+                break;
+            default:
+                new Thread(new Server("127.0.0.1", "2222", "E:\\非编程\\学校作业（word）\\网络协议分析\\大作业\\ServerFIle\\test.txt")).start();
+                break;
+        }
     }
 }
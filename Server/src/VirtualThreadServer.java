@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 每个连接一个线程的Server
+ * 接收线程只负责从 socket 读出数据报，按连接标识放入各连接的入站队列，
+ * 每个连接由一个 Server 在自己的线程中依次执行握手、接收文件与挥手，保留原有的顺序状态机写法
+ * 运行在支持虚拟线程的JDK上时每个连接使用一个虚拟线程，阻塞等待数据报不占用平台线程，可同时承载大量连接
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/14 16:05
+ */
+public class VirtualThreadServer implements Runnable {
+    /**
+     * 一个连接的入站队列
+     * 队列长度取接收窗口大小，Client在途的数据报不会超过通告的窗口；连接线程停滞时多出的数据报按丢包处理，不会占满缓冲池
+     **/
+    private static class Connection {
+        final PacketQueue inbound;
+
+        Connection(int capacity) {
+            this.inbound = new PacketQueue(capacity);
+        }
+    }
+
+    /**
+     * 监听地址
+     **/
+    private final InetSocketAddress address;
+    private final ServerOptions options;
+    /**
+     * 连接表，只由接收线程加入，连接线程结束时移除
+     **/
+    private final Map<ConnectionKey, Connection> connections = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private DatagramChannel channel;
+    private volatile boolean running = true;
+
+    /**
+     * 初始化每个连接一个线程的Server
+     *
+     * @param sourceIp   源IP
+     * @param sourcePort 源端口
+     * @param options    各连接共用的配置
+     */
+    public VirtualThreadServer(String sourceIp, String sourcePort, ServerOptions options) {
+        this.address = new InetSocketAddress(sourceIp, Integer.parseInt(sourcePort));
+        this.options = options;
+        this.executor = newConnectionExecutor();
+    }
+
+    /**
+     * 创建执行连接的线程池，JDK 21 起每个任务一个虚拟线程，之前的版本退回为按需创建平台线程
+     *
+     * @return 线程池
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            channel = DatagramChannel.open();
+            channel.bind(address);
+            System.out.println("每连接一线程Server在 " + address + " 等待连接-----");
+            receive();
+        } catch (IOException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * 停止接收，关闭 socket，并中断所有连接线程
+     */
+    public void close() {
+        running = false;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return 当前连接数
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * 接收循环，读出数据报后放入所属连接的入站队列，缓冲区由连接线程读出后归还
+     * 校验和出错的数据报在建立连接与放入队列之前丢弃，只有SYN才会建立新连接，其余不属于任何连接的数据报直接丢弃
+     */
+    private void receive() throws IOException {
+        BufferPool pool = options.getPool();
+        UDP header = new UDP();
+        // 查找连接用的键，只有建立新连接时才创建放入连接表的键
+        ConnectionKey lookup = new ConnectionKey();
+        while (running) {
+            ByteBuffer packet = pool.acquire();
+            SocketAddress from;
+            try {
+                from = channel.receive(packet);
+            } catch (ClosedChannelException e) {
+                pool.release(packet);
+                return;
+            }
+            packet.flip();
+            // 校验和覆盖整个数据报，只解码通过校验的报头，之后恢复缓冲区的位置，交给连接线程完整处理
+            int length = packet.limit();
+            boolean valid = UDPutils.compareChecksum(packet) && UDPCodec.decodeHeader(packet, header) != null;
+            packet.limit(length).position(0);
+            if (!valid) {
+                pool.release(packet);
+                continue;
+            }
+            Connection connection = connections.get(lookup.set((InetSocketAddress) from, header.getConnection_Id()));
+            if (connection == null) {
+                if (!header.isSyn() || header.isACK()) {
+                    pool.release(packet);
+                    continue;
+                }
+                ConnectionKey key = lookup.copy();
+                connection = new Connection(options.getWindowSize());
+                connections.put(key, connection);
+                start(key, connection);
+            }
+            if (!connection.inbound.offer(packet, from)) {
+                pool.release(packet);
+            }
+        }
+    }
+
+    /**
+     * 在新线程中运行连接，结束后从连接表中移除，并归还队列中剩余的缓冲区
+     *
+     * @param key        连接标识
+     * @param connection 连接的入站队列
+     */
+    private void start(ConnectionKey key, Connection connection) {
+        Server server = new Server(key, options, channel, connection.inbound);
+        executor.execute(() -> {
+            try {
+                server.run();
+            } finally {
+                connections.remove(key);
+                ByteBuffer rest;
+                while ((rest = connection.inbound.poll()) != null) {
+                    options.getPool().release(rest);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,225 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 接收窗口测试：乱序重组、按位置写入、选择确认块与seq回绕
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/14 14:30
+ */
+class ReceiveWindowTest {
+    @TempDir
+    Path dir;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final BufferPool pool = new BufferPool(UDPCodec.MAX_PACKET_LENGTH, 8, false);
+    /**
+     * 所有分块共用一个接收缓冲区，验证 offer 返回后即可复用
+     **/
+    private final ByteBuffer received = ByteBuffer.allocate(UDPCodec.MAX_PACKET_LENGTH);
+
+    @Test
+    void reordersInStreamMode() throws IOException {
+        ReceiveWindow window = new ReceiveWindow(output, pool, 100, 8);
+
+        assertEquals(ReceiveWindow.ACCEPTED, offer(window, 101, "B"));
+        assertEquals(ReceiveWindow.ACCEPTED, offer(window, 103, "D"));
+        assertEquals(0, output.size());
+        assertEquals(2, window.getBuffered());
+        assertEquals(6, window.getAvailable());
+
+        assertEquals(ReceiveWindow.ACCEPTED, offer(window, 100, "A"));
+        assertEquals("AB", written());
+        assertEquals(102, window.getNextSeq());
+        assertEquals(1, window.getBuffered());
+
+        assertEquals(ReceiveWindow.ACCEPTED, offer(window, 102, "C"));
+        assertEquals("ABCD", written());
+        assertEquals(104, window.getNextSeq());
+        assertEquals(0, window.getBuffered());
+        assertEquals(4, window.getBytesWritten());
+    }
+
+    @Test
+    void rejectsDuplicateAndOutOfWindow() throws IOException {
+        ReceiveWindow window = new ReceiveWindow(output, pool, 0, 4);
+        offer(window, 0, "A");
+
+        assertEquals(ReceiveWindow.DUPLICATE, offer(window, 0, "X"));
+        assertEquals(ReceiveWindow.ACCEPTED, offer(window, 2, "C"));
+        assertEquals(ReceiveWindow.DUPLICATE, offer(window, 2, "X"));
+        // 窗口为 [1, 5)
+        assertEquals(ReceiveWindow.OUT_OF_WINDOW, offer(window, 5, "X"));
+        assertEquals(ReceiveWindow.ACCEPTED, offer(window, 4, "E"));
+
+        offer(window, 1, "B");
+        offer(window, 3, "D");
+        assertEquals("ABCDE", written());
+        assertEquals(5, window.getNextSeq());
+    }
+
+    @Test
+    void writesAtSegmentPosition() throws IOException {
+        byte[] content = "0123456789abcdefghij-tail".getBytes(StandardCharsets.US_ASCII);
+        int segmentSize = 10;
+        Path file = dir.resolve("receive.bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ReceiveWindow window = new ReceiveWindow(channel, 50, 4, segmentSize);
+
+            // 乱序到达的分块直接写到文件中的位置，只在窗口中记录已写入
+            assertEquals(ReceiveWindow.ACCEPTED, offer(window, 52, content, 20, 5));
+            assertEquals(ReceiveWindow.ACCEPTED, offer(window, 51, content, 10, 10));
+            assertEquals(15, window.getBytesWritten());
+            assertEquals(50, window.getNextSeq());
+            assertEquals(ReceiveWindow.DUPLICATE, offer(window, 51, content, 10, 10));
+
+            assertEquals(ReceiveWindow.ACCEPTED, offer(window, 50, content, 0, 10));
+            assertEquals(53, window.getNextSeq());
+            assertEquals(0, window.getBuffered());
+            assertEquals(content.length, window.getBytesWritten());
+        }
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+
+    @Test
+    void writesFromBaseOffset() throws IOException {
+        Path file = dir.resolve("part.bin");
+        Files.write(file, new byte[12]);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ReceiveWindow window = new ReceiveWindow(channel, 7, 4, 4, 4);
+            byte[] segment = {1, 2, 3, 4};
+            offer(window, 8, segment, 0, 4);
+            offer(window, 7, segment, 0, 4);
+        }
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 1, 2, 3, 4, 1, 2, 3, 4}, Files.readAllBytes(file));
+    }
+
+    @Test
+    void segmentSizeFixedAfterFirstSegment() throws IOException {
+        Path file = dir.resolve("resize.bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ReceiveWindow window = new ReceiveWindow(channel, 0, 4, 10);
+            assertTrue(window.setSegmentSize(2));
+            offer(window, 1, "cd".getBytes(StandardCharsets.US_ASCII), 0, 2);
+            assertFalse(window.setSegmentSize(4));
+            offer(window, 0, "ab".getBytes(StandardCharsets.US_ASCII), 0, 2);
+        }
+        assertEquals("abcd", Files.readString(file));
+    }
+
+    @Test
+    void sackPutsRecentBlockFirst() throws IOException {
+        ReceiveWindow window = new ReceiveWindow(output, pool, 0, 16);
+        UDP ack = new UDP();
+        window.fillSack(ack, 0);
+        assertEquals(0, ack.getSack_Count());
+
+        for (int seq : new int[]{0, 2, 3, 5, 7, 8, 9}) {
+            offer(window, seq, "x");
+        }
+        assertEquals(1, window.getNextSeq());
+        assertEquals(10, window.getAvailable());
+
+        window.fillSack(ack, 5);
+        assertSack(ack, 5, 6, 2, 4, 7, 10);
+
+        // 最近的分块补在区间边上，报告合并后的整个区间
+        offer(window, 6, "x");
+        window.fillSack(ack, 6);
+        assertSack(ack, 5, 10, 2, 4);
+
+        offer(window, 1, "x");
+        window.fillSack(ack, 1);
+        assertSack(ack, 5, 10);
+    }
+
+    @Test
+    void sackLimitedToMaxBlocks() throws IOException {
+        ReceiveWindow window = new ReceiveWindow(output, pool, 0, 64);
+        for (int seq = 1; seq < 40; seq += 2) {
+            offer(window, seq, "x");
+        }
+        UDP ack = new UDP();
+        window.fillSack(ack, 39);
+        assertEquals(UDPCodec.MAX_SACK_BLOCKS, ack.getSack_Count());
+        assertEquals(39, ack.getSack_Start(0));
+        assertEquals(1, ack.getSack_Start(1));
+        assertEquals(13, ack.getSack_Start(UDPCodec.MAX_SACK_BLOCKS - 1));
+    }
+
+    @Test
+    void sequenceWrapsAroundIntegerMax() throws IOException {
+        // 窗口大小不是2的幂，回绕前后的相邻seq也要落在相邻的槽中
+        ReceiveWindow window = new ReceiveWindow(output, pool, Integer.MAX_VALUE - 1, 6);
+
+        assertEquals(ReceiveWindow.ACCEPTED, offer(window, Integer.MIN_VALUE, "C"));
+        assertEquals(ReceiveWindow.ACCEPTED, offer(window, Integer.MIN_VALUE + 2, "E"));
+        UDP ack = new UDP();
+        window.fillSack(ack, Integer.MIN_VALUE + 2);
+        assertSack(ack, Integer.MIN_VALUE + 2, Integer.MIN_VALUE + 3, Integer.MIN_VALUE, Integer.MIN_VALUE + 1);
+
+        assertEquals(ReceiveWindow.ACCEPTED, offer(window, Integer.MAX_VALUE, "B"));
+        assertEquals(ReceiveWindow.ACCEPTED, offer(window, Integer.MAX_VALUE - 1, "A"));
+        assertEquals("ABC", written());
+        assertEquals(Integer.MIN_VALUE + 1, window.getNextSeq());
+        assertEquals(ReceiveWindow.DUPLICATE, offer(window, Integer.MAX_VALUE, "X"));
+        assertEquals(ReceiveWindow.OUT_OF_WINDOW, offer(window, Integer.MIN_VALUE + 9, "X"));
+
+        offer(window, Integer.MIN_VALUE + 1, "D");
+        assertEquals("ABCDE", written());
+    }
+
+    @Test
+    void positionalWriteAcrossWraparound() throws IOException {
+        Path file = dir.resolve("wrap.bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ReceiveWindow window = new ReceiveWindow(channel, Integer.MAX_VALUE, 3, 2);
+            offer(window, Integer.MIN_VALUE + 1, "ef".getBytes(StandardCharsets.US_ASCII), 0, 2);
+            offer(window, Integer.MIN_VALUE, "cd".getBytes(StandardCharsets.US_ASCII), 0, 2);
+            offer(window, Integer.MAX_VALUE, "ab".getBytes(StandardCharsets.US_ASCII), 0, 2);
+            assertEquals(Integer.MIN_VALUE + 2, window.getNextSeq());
+        }
+        assertEquals("abcdef", Files.readString(file));
+    }
+
+    private int offer(ReceiveWindow window, int seq, String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+        return offer(window, seq, bytes, 0, bytes.length);
+    }
+
+    private int offer(ReceiveWindow window, int seq, byte[] data, int offset, int length) throws IOException {
+        received.clear();
+        received.put(data, offset, length).flip();
+        int result = window.offer(seq, received);
+        // 模拟下一个数据报覆盖接收缓冲区
+        received.clear();
+        received.put(new byte[length]);
+        return result;
+    }
+
+    private String written() {
+        return output.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static void assertSack(UDP ack, int... blocks) {
+        assertEquals(blocks.length / 2, ack.getSack_Count());
+        for (int i = 0; i < ack.getSack_Count(); i++) {
+            assertEquals(blocks[2 * i], ack.getSack_Start(i), "block " + i);
+            assertEquals(blocks[2 * i + 1], ack.getSack_End(i), "block " + i);
+        }
+    }
+}
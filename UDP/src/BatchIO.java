@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * 批量收发数据报
+ * 一次调用收取或发出多个数据报，由实现决定如何减少每个数据报的系统调用开销，
+ * 本地实现可用 recvmmsg/sendmmsg 一次系统调用完成一批，默认实现在 DatagramChannel 上循环收发
+ * 只用于非阻塞的 DatagramChannel，收取时不会等待
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/16 15:20
+ */
+public interface BatchIO {
+    /**
+     * 指定本地实现类名的系统属性，实现类需有以 DatagramChannel 为参数的构造方法
+     **/
+    String BACKEND_PROPERTY = "rudp.batchio";
+
+    /**
+     * 收取当前已到达的数据报，直到没有数据报或缓冲区用完
+     *
+     * @param buffers 接收缓冲区，收取前清空，收取后已翻转，从 position 到 limit 为数据报
+     * @param sources 各数据报的来源地址，不需要时可为 null
+     * @return 收到的数据报个数
+     * @throws IOException 接收异常
+     */
+    int receive(ByteBuffer[] buffers, SocketAddress[] sources) throws IOException;
+
+    /**
+     * 发出一批数据报，各缓冲区的 position 在发送后保持不变
+     *
+     * @param packets 数据报，每个数据报由一组缓冲区聚集而成
+     * @param targets 各数据报的目的地址，channel 已连接时可为 null
+     * @param count   数据报个数
+     * @return 实际发出的数据报个数，发送缓冲区已满时未发出的数据报与网络丢包一样由重传处理
+     * @throws IOException 发送异常
+     */
+    int send(ByteBuffer[][] packets, SocketAddress[] targets, int count) throws IOException;
+
+    /**
+     * 为 channel 创建批量收发，系统属性指定了本地实现且能加载时使用本地实现，否则使用默认实现
+     *
+     * @param channel 非阻塞的 DatagramChannel
+     * @return 批量收发
+     */
+    static BatchIO open(DatagramChannel channel) {
+        String backend = System.getProperty(BACKEND_PROPERTY);
+        if (backend != null && !backend.isEmpty()) {
+            try {
+                Constructor<?> constructor = Class.forName(backend).getConstructor(DatagramChannel.class);
+                return (BatchIO) constructor.newInstance(channel);
+            } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+                System.out.println("批量收发实现 " + backend + " 无法加载，使用默认实现：" + e);
+            }
+        }
+        return new ChannelBatchIO(channel);
+    }
+}
@@ -0,0 +1,113 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据报缓冲池
+ * 缓冲区大小固定，收发循环与ACK构造从池中取用、用完归还，稳定传输时不再为每个数据报分配内存
+ * 空闲缓冲区保存在预先分配的数组中，按栈的方式取出与归还，取用与归还都不会分配节点
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/06 19:48
+ */
+public class BufferPool {
+    /**
+     * 每个缓冲区的大小
+     **/
+    private final int bufferSize;
+    /**
+     * 是否使用堆外内存
+     **/
+    private final boolean direct;
+    /**
+     * 空闲缓冲区，长度即池中最多保留的空闲缓冲区个数，超出的归还直接丢弃
+     **/
+    private final ByteBuffer[] free;
+    /**
+     * 当前空闲缓冲区个数，free 中下标小于它的位置保存空闲缓冲区
+     **/
+    private int pooled;
+    /**
+     * 命中次数与未命中（新分配）次数
+     **/
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * 初始化缓冲池
+     *
+     * @param bufferSize 每个缓冲区的大小
+     * @param maxPooled  池中最多保留的空闲缓冲区个数
+     * @param direct     是否使用堆外内存，堆外缓冲区不能用于 DatagramPacket
+     */
+    public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.free = new ByteBuffer[Math.max(1, maxPooled)];
+    }
+
+    /**
+     * 取出一个已清空的缓冲区，池为空时新分配
+     *
+     * @return 缓冲区，position 为 0，limit 为容量
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = null;
+        synchronized (free) {
+            if (pooled > 0) {
+                buffer = free[--pooled];
+                free[pooled] = null;
+            }
+        }
+        if (buffer != null) {
+            hits.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        misses.incrementAndGet();
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * 归还缓冲区
+     *
+     * @param buffer 由 acquire 取出的缓冲区
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            return;
+        }
+        synchronized (free) {
+            if (pooled < free.length) {
+                free[pooled++] = buffer;
+            }
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        int idle;
+        synchronized (free) {
+            idle = pooled;
+        }
+        return "BufferPool{" +
+                "bufferSize = " + bufferSize +
+                ", direct = " + direct +
+                ", pooled = " + idle +
+                ", hits = " + hits.get() +
+                ", misses = " + misses.get() +
+                '}';
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * 批量收发的默认实现
+ * 在非阻塞 DatagramChannel 上逐个收发，每个数据报仍是一次系统调用，
+ * 但一次唤醒处理一整批，调用方的解码、确认与发送按批进行
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/16 15:35
+ */
+public class ChannelBatchIO implements BatchIO {
+    private final DatagramChannel channel;
+    /**
+     * 聚集写前各缓冲区的位置，发送后据此恢复，复用以免每个数据报分配
+     **/
+    private int[] positions = new int[2];
+
+    public ChannelBatchIO(DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public int receive(ByteBuffer[] buffers, SocketAddress[] sources) throws IOException {
+        int count = 0;
+        while (count < buffers.length) {
+            ByteBuffer buffer = buffers[count];
+            buffer.clear();
+            SocketAddress from = channel.receive(buffer);
+            if (from == null) {
+                break;
+            }
+            buffer.flip();
+            if (sources != null) {
+                sources[count] = from;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public int send(ByteBuffer[][] packets, SocketAddress[] targets, int count) throws IOException {
+        int sent = 0;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer[] packet = packets[i];
+            SocketAddress target = targets == null ? null : targets[i];
+            int written;
+            if (target == null) {
+                // 已连接的 channel 可以聚集写
+                mark(packet);
+                written = (int) channel.write(packet);
+                reset(packet);
+            } else {
+                // 发往指定地址的数据报只能是单个缓冲区
+                ByteBuffer buffer = packet[0];
+                int position = buffer.position();
+                written = channel.send(buffer, target);
+                buffer.position(position);
+            }
+            if (written > 0) {
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    private void mark(ByteBuffer[] packet) {
+        if (positions.length < packet.length) {
+            positions = new int[packet.length];
+        }
+        for (int i = 0; i < packet.length; i++) {
+            positions[i] = packet[i].position();
+        }
+    }
+
+    private void reset(ByteBuffer[] packet) {
+        for (int i = 0; i < packet.length; i++) {
+            packet[i].position(positions[i]);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * 往返时延估计与重传超时计算
+ * 按 Jacobson/Karels 算法维护平滑往返时延 SRTT 与时延偏差 RTTVAR，
+ * RTO = SRTT + 4 x RTTVAR + 对端最长延迟确认时间，超时后指数退避，直到获得新的有效样本
+ * 时间单位均为微秒
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/08 21:05
+ */
+public class RttEstimator {
+    /**
+     * 尚未获得样本时的初始RTO
+     **/
+    public static final long INITIAL_RTO = 1_000_000;
+    /**
+     * RTO 下限与上限
+     **/
+    public static final long MIN_RTO = 2_000;
+    public static final long MAX_RTO = 60_000_000;
+
+    private long srtt;
+    private long rttvar;
+    private long rto = INITIAL_RTO;
+    /**
+     * 最近一次的样本
+     **/
+    private long lastRtt;
+    private boolean hasSample;
+    /**
+     * 对端延迟确认的最长等待时间
+     **/
+    private long maxAckDelay;
+
+    /**
+     * 加入一个往返时延样本，并重新计算RTO
+     * 依据 Karn 算法，调用方不应使用无法确定对应哪次发送的重传报文的样本
+     *
+     * @param rtt 往返时延，微秒
+     */
+    public void sample(long rtt) {
+        if (rtt < 0) {
+            return;
+        }
+        lastRtt = rtt;
+        if (!hasSample) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+            hasSample = true;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+            srtt = (7 * srtt + rtt) / 8;
+        }
+        rto = Math.min(MAX_RTO, Math.max(MIN_RTO, srtt + 4 * rttvar + maxAckDelay));
+    }
+
+    /**
+     * 设置对端延迟确认的最长等待时间，之后的RTO均会加上该值
+     *
+     * @param maxAckDelay 最长延迟确认时间，微秒
+     */
+    public void setMaxAckDelay(long maxAckDelay) {
+        this.maxAckDelay = Math.max(0, maxAckDelay);
+    }
+
+    public long getMaxAckDelay() {
+        return maxAckDelay;
+    }
+
+    /**
+     * 发生超时，RTO 加倍
+     */
+    public void backoff() {
+        rto = Math.min(MAX_RTO, rto * 2);
+    }
+
+    public long getRto() {
+        return rto;
+    }
+
+    /**
+     * @return 以毫秒表示的RTO，向上取整，至少为1，可直接用于 setSoTimeout
+     */
+    public int getRtoMillis() {
+        return (int) Math.max(1, (rto + 999) / 1000);
+    }
+
+    public long getSrtt() {
+        return srtt;
+    }
+
+    public long getRttvar() {
+        return rttvar;
+    }
+
+    public long getLastRtt() {
+        return lastRtt;
+    }
+
+    public boolean hasSample() {
+        return hasSample;
+    }
+
+    /**
+     * 当前时间戳，写入报头的 timestamp 字段
+     * 取微秒时钟的低32位，比较时用差值，回绕不影响结果；0 表示未携带时间戳
+     *
+     * @return 非 0 的32位时间戳
+     */
+    public static int timestamp() {
+        int now = (int) (System.nanoTime() / 1000);
+        return now == 0 ? 1 : now;
+    }
+
+    /**
+     * 根据回显的时间戳计算往返时延
+     *
+     * @param echo 对端回显的时间戳
+     * @return 往返时延，微秒，未携带时间戳返回 -1
+     */
+    public static long elapsed(int echo) {
+        if (echo == 0) {
+            return -1;
+        }
+        return timestamp() - echo;
+    }
+
+    @Override
+    public String toString() {
+        return "RttEstimator{" +
+                "srtt = " + srtt +
+                "us, rttvar = " + rttvar +
+                "us, rto = " + rto +
+                "us}";
+    }
+}
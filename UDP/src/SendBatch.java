@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * 待发送的一批数据报
+ * 发送方在一次唤醒中产生的数据报先放入批中，等待之前一次交给 BatchIO 发出，批满时提前发出
+ * 直接加入的数据报只保存引用，发出之前不能修改；拷贝加入的数据报放在缓冲池取出的缓冲区中，发出后归还
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/16 15:50
+ */
+public class SendBatch {
+    private final BatchIO io;
+    private final ByteBuffer[][] packets;
+    private final SocketAddress[] targets;
+    /**
+     * 拷贝加入时使用的缓冲池，及本批中需要归还的缓冲区
+     **/
+    private final BufferPool pool;
+    private final ByteBuffer[] copies;
+    /**
+     * 拷贝加入的数据报只有一个缓冲区，每个位置预先分配好数组
+     **/
+    private final ByteBuffer[][] singles;
+    private int count;
+    /**
+     * 累计发出的批数与数据报个数
+     **/
+    private long batches;
+    private long sent;
+
+    /**
+     * 初始化发送批
+     *
+     * @param io       批量收发
+     * @param capacity 一批最多的数据报个数
+     * @param pool     拷贝加入时使用的缓冲池，只直接加入时可为 null
+     */
+    public SendBatch(BatchIO io, int capacity, BufferPool pool) {
+        this.io = io;
+        this.packets = new ByteBuffer[capacity][];
+        this.targets = new SocketAddress[capacity];
+        this.pool = pool;
+        this.copies = new ByteBuffer[capacity];
+        this.singles = new ByteBuffer[capacity][1];
+    }
+
+    /**
+     * 直接加入一个数据报
+     *
+     * @param packet 数据报的各个缓冲区，从 position 到 limit
+     * @param target 目的地址，channel 已连接时可为 null
+     * @throws IOException 批满时发出异常
+     */
+    public void add(ByteBuffer[] packet, SocketAddress target) throws IOException {
+        packets[count] = packet;
+        targets[count] = target;
+        if (++count == packets.length) {
+            flush();
+        }
+    }
+
+    /**
+     * 拷贝加入一个数据报，调用返回后 packet 即可复用
+     *
+     * @param packet 数据报，从 position 到 limit
+     * @param target 目的地址
+     * @throws IOException 批满时发出异常
+     */
+    public void addCopy(ByteBuffer packet, SocketAddress target) throws IOException {
+        ByteBuffer copy = pool.acquire();
+        copy.put(packet.duplicate()).flip();
+        copies[count] = copy;
+        singles[count][0] = copy;
+        add(singles[count], target);
+    }
+
+    /**
+     * 发出批中的全部数据报
+     *
+     * @return 实际发出的数据报个数
+     * @throws IOException 发送异常
+     */
+    public int flush() throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        int n = count;
+        count = 0;
+        try {
+            int result = io.send(packets, targets, n);
+            batches++;
+            sent += result;
+            return result;
+        } finally {
+            for (int i = 0; i < n; i++) {
+                packets[i] = null;
+                targets[i] = null;
+                if (copies[i] != null) {
+                    pool.release(copies[i]);
+                    copies[i] = null;
+                    singles[i][0] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 当前批中的数据报个数
+     */
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "SendBatch{" +
+                "batches = " + batches +
+                ", sent = " + sent +
+                ", average = " + (batches == 0 ? 0 : sent / batches) +
+                '}';
+    }
+}
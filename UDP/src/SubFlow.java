@@ -0,0 +1,106 @@
+import java.nio.ByteBuffer;
+
+/**
+ * 并行传输中的一个子流
+ * 大文件按字节区间分为多段，每段由一个独立的连接发送，Server按区间的偏移写入同一个文件
+ * 子流信息放在SYN的数据区中，前 8 字节仍为文件大小，只认识文件大小的一方可照常解析
+ * 数据区依次为 文件大小 8字节、区间偏移 8字节、区间长度 8字节、传输标识 4字节、子流序号 1字节、子流个数 1字节
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/15 15:10
+ */
+public final class SubFlow {
+    /**
+     * SYN数据区中子流信息的长度
+     **/
+    public static final int LENGTH = 3 * Long.BYTES + Integer.BYTES + 2;
+
+    /**
+     * 传输标识，同一个文件的各子流相同，Server据此把它们写入同一个文件
+     **/
+    private final int transferId;
+    /**
+     * 子流序号与子流个数
+     **/
+    private final int index;
+    private final int count;
+    /**
+     * 本子流负责的区间在文件中的偏移与长度
+     **/
+    private final long offset;
+    private final long length;
+    /**
+     * 整个文件的大小
+     **/
+    private final long fileLength;
+
+    public SubFlow(int transferId, int index, int count, long offset, long length, long fileLength) {
+        this.transferId = transferId;
+        this.index = index;
+        this.count = count;
+        this.offset = offset;
+        this.length = length;
+        this.fileLength = fileLength;
+    }
+
+    /**
+     * 从SYN的数据区中解析子流信息
+     *
+     * @param data SYN的数据区
+     * @return 子流信息，数据区中只有文件大小时返回 null
+     */
+    public static SubFlow fromSynData(byte[] data) {
+        if (data == null || data.length < LENGTH) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long fileLength = buffer.getLong();
+        long offset = buffer.getLong();
+        long length = buffer.getLong();
+        int transferId = buffer.getInt();
+        int index = buffer.get() & 0xFF;
+        int count = buffer.get() & 0xFF;
+        if (offset < 0 || length < 0 || offset + length > fileLength) {
+            return null;
+        }
+        return new SubFlow(transferId, index, count, offset, length, fileLength);
+    }
+
+    /**
+     * @return 放入SYN数据区的子流信息
+     */
+    public byte[] toSynData() {
+        return ByteBuffer.allocate(LENGTH).putLong(fileLength).putLong(offset).putLong(length)
+                .putInt(transferId).put((byte) index).put((byte) count).array();
+    }
+
+    public int getTransferId() {
+        return transferId;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    @Override
+    public String toString() {
+        return "子流 " + (index + 1) + "/" + count + " [" + offset + ", " + (offset + length) + ")";
+    }
+}
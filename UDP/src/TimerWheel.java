@@ -0,0 +1,178 @@
+import java.util.Queue;
+
+/**
+ * 哈希时间轮
+ * 每个定时器按到期时间落入 到期tick % 轮大小 对应的槽，推进时只检查当前槽，
+ * 添加、取消均为 O(1)，适合为窗口中成千上万个分块各自维护重传定时器
+ * 定时器节点由调用方对象继承 Timer 实现，调度过程中不再分配内存
+ * 时间单位由调用方决定，与 tickDuration 一致即可
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/10 16:52
+ */
+public class TimerWheel<T extends TimerWheel.Timer> {
+    /**
+     * 时间轮中的定时器节点
+     **/
+    public static class Timer {
+        private long deadline;
+        private long remainingRounds;
+        private Timer prev;
+        private Timer next;
+        private int bucket = -1;
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isScheduled() {
+            return bucket >= 0;
+        }
+    }
+
+    /**
+     * 每个tick的时长
+     **/
+    private final long tickDuration;
+    /**
+     * 槽，大小为2的幂
+     **/
+    private final Timer[] buckets;
+    private final int mask;
+    /**
+     * 时间轮的起始时间
+     **/
+    private final long startTime;
+    /**
+     * 下一个待处理的tick
+     **/
+    private long tick;
+    /**
+     * 已调度的定时器个数
+     **/
+    private int size;
+
+    /**
+     * 初始化时间轮
+     *
+     * @param tickDuration 每个tick的时长
+     * @param wheelSize    槽的个数，会向上取整为2的幂
+     * @param now          当前时间
+     */
+    public TimerWheel(long tickDuration, int wheelSize, long now) {
+        int n = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickDuration = tickDuration;
+        this.buckets = new Timer[n];
+        this.mask = n - 1;
+        this.startTime = now;
+    }
+
+    /**
+     * 调度定时器，已调度的定时器会先被取消
+     *
+     * @param node     定时器
+     * @param deadline 到期时间
+     */
+    public void schedule(T node, long deadline) {
+        if (node.isScheduled()) {
+            cancel(node);
+        }
+        Timer timer = node;
+        long calculated = Math.max(0, (deadline - startTime) / tickDuration);
+        timer.deadline = deadline;
+        timer.remainingRounds = Math.max(0, (calculated - tick) / buckets.length);
+        int index = (int) (Math.max(calculated, tick) & mask);
+        timer.bucket = index;
+        timer.prev = null;
+        timer.next = buckets[index];
+        if (buckets[index] != null) {
+            buckets[index].prev = timer;
+        }
+        buckets[index] = timer;
+        size++;
+    }
+
+    /**
+     * 取消定时器，未调度的定时器不做处理
+     *
+     * @param node 定时器
+     */
+    public void cancel(T node) {
+        Timer timer = node;
+        if (!timer.isScheduled()) {
+            return;
+        }
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            buckets[timer.bucket] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.bucket = -1;
+        size--;
+    }
+
+    /**
+     * 推进时间轮到当前时间，将到期的定时器移出时间轮并放入 expired
+     *
+     * @param now     当前时间
+     * @param expired 用于接收到期定时器的队列，由调用方复用
+     * @return 本次到期的定时器个数
+     */
+    @SuppressWarnings("unchecked")
+    public int expire(long now, Queue<T> expired) {
+        int count = 0;
+        // tick 对应的槽在该tick结束后处理，保证其中轮数为 0 的定时器均已到期
+        while (startTime + (tick + 1) * tickDuration <= now) {
+            if (size == 0) {
+                tick = (now - startTime) / tickDuration;
+                break;
+            }
+            Timer timer = buckets[(int) (tick & mask)];
+            while (timer != null) {
+                Timer next = timer.next;
+                if (timer.remainingRounds <= 0) {
+                    cancel((T) timer);
+                    expired.offer((T) timer);
+                    count++;
+                } else {
+                    timer.remainingRounds--;
+                }
+                timer = next;
+            }
+            tick++;
+        }
+        return count;
+    }
+
+    /**
+     * 估计下一次可能有定时器到期的时间，用于决定等待时长
+     * 返回第一个非空槽的处理时间，该槽中的定时器可能还需再转若干轮，届时提前醒来即可
+     *
+     * @return 下一次需要推进时间轮的时间，没有已调度的定时器返回 Long.MAX_VALUE
+     */
+    public long nextExpiry() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[(int) ((tick + i) & mask)] != null) {
+                return startTime + (tick + i + 1) * tickDuration;
+            }
+        }
+        return startTime + (tick + buckets.length) * tickDuration;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -1,48 +1,65 @@
-import java.io.IOException;
-import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.Objects;
 
 /**
  * UDP数据包
+ * 只保存报头各字段与数据区，线路上的二进制格式由 UDPCodec 负责编解码
  *
  * @author : LiuYi
  * @version : 2.0
  * @date : 2021/11/25 15:23
  */
-public class UDP implements Serializable {
-    private static final long serialVersionUID = -7421277184322913905L;
+public class UDP {
+
+    /**
+     * 标志位
+     **/
+    public static final int FLAG_ACK = 1;
+    public static final int FLAG_SYN = 1 << 1;
+    public static final int FLAG_FIN = 1 << 2;
+    /**
+     * 文件的最后一个数据报，接收方据此确定文件结束
+     **/
+    public static final int FLAG_EOF = 1 << 3;
+    /**
+     * 路径MTU探测报文，Client发出的探测报文数据区为填充字节，Server回复的确认中 ack 为收到的数据报长度；
+     * 与 EOF 同时置位时为探测结束，ack 为选定的分块大小
+     **/
+    public static final int FLAG_PROBE = 1 << 4;
 
     /**
      * source_Port：         源端口 2字节
      * destination_Port：    目的端口 2字节
      * length：              数据报总长度 2字节
-     * Checksum：            检验和 2字节
+     * Checksum：            报头与数据区的 CRC32C 检验和，编码时计算 4字节
      *
      * sequence_Number：     确认号 4字节
-     * ACK：                 确认ACK 1字节
-     * ack：                 ack对应seq
-     * SYN：                 同步SYN
-     * Fin：                 终止FIN
-     * Window_Size：         窗口大小
+     * ack：                 ack对应seq 4字节
+     * flags：               标志位 ACK、SYN、FIN、EOF、PROBE 1字节
+     * Window_Size：         窗口大小 2字节
+     * timestamp：           发送时间戳 4字节
+     * timestamp_Echo：      回显对端的发送时间戳 4字节
+     * connection_Id：       连接标识，由Client随机生成，Server 据此与源地址一起区分连接 4字节
+     * sack：                选择确认块，每块为 [起始seq, 结束seq) 8字节，最多 UDPCodec.MAX_SACK_BLOCKS 块
      * data                  数据区
      */
-    private byte[] source_Port = new byte[2];
-    private byte[] destination_Port = new byte[2];
-    private byte[] source_IP = new byte[2];
-    private int length = 0;
-    private byte[] Checksum = new byte[2];
-
-    private byte[] sequence_Number = new byte[4];
-    private byte[] ACK = new byte[1];
-    private byte[] ack = new byte[4];
-    private byte[] Syn = new byte[1];
-    private byte[] Fin = new byte[1];
-    private byte[] Window_Size = new byte[2];
+    private int source_Port;
+    private int destination_Port;
+    private int length = UDPCodec.HEADER_LENGTH;
+    private int Checksum;
+
+    private int sequence_Number;
+    private int ack;
+    private int flags;
+    private int Window_Size;
+    private int timestamp;
+    private int timestamp_Echo;
+    private int connection_Id;
+    private final int[] sack = new int[2 * UDPCodec.MAX_SACK_BLOCKS];
+    private int sack_Count;
     private byte[] data;
 
-    public UDP() throws IOException {
+    public UDP() {
     }
 
     /**
@@ -50,11 +67,10 @@ public class UDP implements Serializable {
      *
      * @param source_Port      源端口
      * @param destination_Port 目的端口
-     * @throws IOException 初始化错误
      */
-    public UDP(String source_Port, String destination_Port) throws IOException {
-        this.source_Port = source_Port.getBytes();
-        this.destination_Port = destination_Port.getBytes();
+    public UDP(int source_Port, int destination_Port) {
+        this.source_Port = source_Port;
+        this.destination_Port = destination_Port;
     }
 
     /**
@@ -63,50 +79,36 @@ public class UDP implements Serializable {
      * @param source_Port      源端口
      * @param destination_Port 目的端口
      * @param sequence_Number  确认号
-     * @param ACK              确认ACK
      * @param ack              回复ack序号
-     * @param syn              同步SYN
-     * @param fin              终止FIN
+     * @param flags            标志位，由 FLAG_ACK、FLAG_SYN、FLAG_FIN、FLAG_EOF、FLAG_PROBE 组合
      * @param window_Size      窗口大小
      * @param data             数据
-     * @throws IOException 初始化错误
      */
-    public UDP(String source_Port, String destination_Port, String sequence_Number, String ACK, String ack, String syn, String fin, String window_Size, byte[] data) throws IOException {
-        this.source_Port = source_Port.getBytes();
-        this.destination_Port = destination_Port.getBytes();
-        this.sequence_Number = sequence_Number.getBytes();
-        this.ACK = ACK.getBytes();
-        this.ack = ack.getBytes();
-        Syn = syn.getBytes();
-        Fin = fin.getBytes();
-        Window_Size = window_Size.getBytes();
+    public UDP(int source_Port, int destination_Port, int sequence_Number, int ack, int flags, int window_Size, byte[] data) {
+        this.source_Port = source_Port;
+        this.destination_Port = destination_Port;
+        this.sequence_Number = sequence_Number;
+        this.ack = ack;
+        this.flags = flags;
+        this.Window_Size = window_Size;
         this.data = data;
-        setChecksum(data);
         setLength();
     }
 
-    public String getSource_IP() throws UnsupportedEncodingException {
-        return new String(source_IP, "utf-8");
-    }
-
-    public void setSource_IP(String source_IP) {
-        this.source_IP = source_IP.getBytes();
+    public int getSource_Port() {
+        return source_Port;
     }
 
-    public String getSource_Port() throws UnsupportedEncodingException {
-        return new String(source_Port, "utf-8");
+    public void setSource_Port(int source_Port) {
+        this.source_Port = source_Port;
     }
 
-    public void setSource_Port(String source_Port) {
-        this.source_Port = source_Port.getBytes();
+    public int getDestination_Port() {
+        return destination_Port;
     }
 
-    public String getDestination_Port() throws UnsupportedEncodingException {
-        return new String(destination_Port, "utf-8");
-    }
-
-    public void setDestination_Port(String destination_Port) {
-        this.destination_Port = destination_Port.getBytes();
+    public void setDestination_Port(int destination_Port) {
+        this.destination_Port = destination_Port;
     }
 
     public int getLength() {
@@ -115,70 +117,131 @@ public class UDP implements Serializable {
 
     public void setLength() {
         if (data == null) {
-            this.length = 35;
+            this.length = UDPCodec.HEADER_LENGTH;
         } else {
-            this.length = 35 + data.length;
+            this.length = UDPCodec.HEADER_LENGTH + data.length;
         }
     }
 
-    public byte[] getChecksum() throws UnsupportedEncodingException {
+    public void setLength(int length) {
+        this.length = length;
+    }
+
+    public int getChecksum() {
         return Checksum;
     }
 
-    public void setChecksum(byte[] data) {
-        if (data == null) {
-            this.Checksum = new byte[0];
-        } else {
-            this.Checksum = UDPutils.getChecksum(data);
-        }
+    public void setChecksum(int checksum) {
+        this.Checksum = checksum;
+    }
+
+    public int getSequence_Number() {
+        return sequence_Number;
+    }
+
+    public void setSequence_Number(int sequence_Number) {
+        this.sequence_Number = sequence_Number;
+    }
+
+    public int getAck() {
+        return ack;
+    }
+
+    public void setAck(int ack) {
+        this.ack = ack;
+    }
+
+    public int getFlags() {
+        return flags;
     }
 
-    public String getSequence_Number() throws UnsupportedEncodingException {
-        return new String(sequence_Number, "utf-8");
+    public void setFlags(int flags) {
+        this.flags = flags;
     }
 
-    public void setSequence_Number(String sequence_Number) {
-        this.sequence_Number = sequence_Number.getBytes();
+    public boolean isACK() {
+        return (flags & FLAG_ACK) != 0;
     }
 
-    public String getACK() throws UnsupportedEncodingException {
-        return new String(ACK, "utf-8");
+    public boolean isSyn() {
+        return (flags & FLAG_SYN) != 0;
     }
 
-    public void setACK(String ACK) {
-        this.ACK = ACK.getBytes();
+    public boolean isFin() {
+        return (flags & FLAG_FIN) != 0;
     }
 
-    public String getAck() throws UnsupportedEncodingException {
-        return new String(ack, "utf-8");
+    public boolean isEof() {
+        return (flags & FLAG_EOF) != 0;
     }
 
-    public void setAck(String ack) {
-        this.ack = ack.getBytes();
+    public boolean isProbe() {
+        return (flags & FLAG_PROBE) != 0;
     }
 
-    public String getSyn() throws UnsupportedEncodingException {
-        return new String(Syn, "utf-8");
+    public int getWindow_Size() {
+        return Window_Size;
     }
 
-    public void setSyn(String syn) {
-        Syn = syn.getBytes();
+    public void setWindow_Size(int window_Size) {
+        Window_Size = window_Size;
     }
 
-    public String getFin() throws UnsupportedEncodingException {
-        return new String(Fin, "utf-8");
+    public int getTimestamp() {
+        return timestamp;
     }
 
-    public void setFin(String fin) {
-        Fin = fin.getBytes();
+    public void setTimestamp(int timestamp) {
+        this.timestamp = timestamp;
     }
 
-    public String getWindow_Size() throws UnsupportedEncodingException {
-        return new String(Window_Size, "utf-8");
+    public int getTimestamp_Echo() {
+        return timestamp_Echo;
     }
 
-    public void setWindow_Size(String window_Size) {
-        Window_Size = window_Size.getBytes();
+    public void setTimestamp_Echo(int timestamp_Echo) {
+        this.timestamp_Echo = timestamp_Echo;
+    }
+
+    public int getConnection_Id() {
+        return connection_Id;
+    }
+
+    public void setConnection_Id(int connection_Id) {
+        this.connection_Id = connection_Id;
+    }
+
+    public int getSack_Count() {
+        return sack_Count;
+    }
+
+    public int getSack_Start(int i) {
+        return sack[2 * i];
+    }
+
+    public int getSack_End(int i) {
+        return sack[2 * i + 1];
+    }
+
+    /**
+     * 添加一个选择确认块
+     *
+     * @param start 块中第一个seq
+     * @param end   块中最后一个seq的下一个
+     * @return 块数已满返回false
+     */
+    public boolean addSack(int start, int end) {
+        if (sack_Count == UDPCodec.MAX_SACK_BLOCKS) {
+            return false;
+        }
+        sack[2 * sack_Count] = start;
+        sack[2 * sack_Count + 1] = end;
+        sack_Count++;
+        return true;
+    }
+
+    public void clearSack() {
+        sack_Count = 0;
     }
 
     public byte[] getData() {
@@ -199,56 +262,51 @@ public class UDP implements Serializable {
         }
         UDP udp = (UDP) o;
         return length == udp.length &&
-                Arrays.equals(source_Port, udp.source_Port) &&
-                Arrays.equals(destination_Port, udp.destination_Port) &&
-                Arrays.equals(Checksum, udp.Checksum) &&
-                Arrays.equals(sequence_Number, udp.sequence_Number) &&
-                Arrays.equals(ACK, udp.ACK) &&
-                Arrays.equals(ack, udp.ack) &&
-                Arrays.equals(Syn, udp.Syn) &&
-                Arrays.equals(Fin, udp.Fin) &&
-                Arrays.equals(Window_Size, udp.Window_Size) &&
+                source_Port == udp.source_Port &&
+                destination_Port == udp.destination_Port &&
+                Checksum == udp.Checksum &&
+                sequence_Number == udp.sequence_Number &&
+                ack == udp.ack &&
+                flags == udp.flags &&
+                Window_Size == udp.Window_Size &&
+                timestamp == udp.timestamp &&
+                timestamp_Echo == udp.timestamp_Echo &&
+                connection_Id == udp.connection_Id &&
+                sack_Count == udp.sack_Count &&
+                Arrays.equals(sack, 0, 2 * sack_Count, udp.sack, 0, 2 * udp.sack_Count) &&
                 Arrays.equals(data, udp.data);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(length);
-        result = 31 * result + Arrays.hashCode(source_Port);
-        result = 31 * result + Arrays.hashCode(destination_Port);
-        result = 31 * result + Arrays.hashCode(Checksum);
-        result = 31 * result + Arrays.hashCode(sequence_Number);
-        result = 31 * result + Arrays.hashCode(ACK);
-        result = 31 * result + Arrays.hashCode(ack);
-        result = 31 * result + Arrays.hashCode(Syn);
-        result = 31 * result + Arrays.hashCode(Fin);
-        result = 31 * result + Arrays.hashCode(Window_Size);
+        int result = Objects.hash(length, source_Port, destination_Port, Checksum, sequence_Number, ack, flags, Window_Size, timestamp, timestamp_Echo, connection_Id);
+        for (int i = 0; i < 2 * sack_Count; i++) {
+            result = 31 * result + sack[i];
+        }
         result = 31 * result + Arrays.hashCode(data);
         return result;
     }
 
     @Override
     public String toString() {
-        String temp = null;
-        try {
-            temp = "UDP{" +
-                    "source_IP = " + getSource_IP() +
-                    ", \n    source_Port = " + getSource_Port() +
-                    ", \n    destination_Port = " + getDestination_Port() +
-                    ", \n    length = " + getLength() +
-                    ", \n    Checksum = " + new String(Checksum, "utf-8") +
-                    ", \n    sequence_Number = " + getSequence_Number() +
-                    ", \n    ACK = " + getACK() +
-                    ", \n    ack = " + getAck() +
-                    ", \n    Syn = " + getSyn() +
-                    ", \n    Fin = " + getFin() +
-                    ", \n    Window_Size = " + getWindow_Size() +
-                    ", \n    data = " + data +
-                    '}';
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-
-        return temp;
+        return "UDP{" +
+                "source_Port = " + source_Port +
+                ", \n    destination_Port = " + destination_Port +
+                ", \n    length = " + length +
+                ", \n    Checksum = " + Integer.toUnsignedString(Checksum) +
+                ", \n    sequence_Number = " + sequence_Number +
+                ", \n    ACK = " + (isACK() ? 1 : 0) +
+                ", \n    ack = " + ack +
+                ", \n    Syn = " + (isSyn() ? 1 : 0) +
+                ", \n    Fin = " + (isFin() ? 1 : 0) +
+                ", \n    Eof = " + (isEof() ? 1 : 0) +
+                ", \n    Probe = " + (isProbe() ? 1 : 0) +
+                ", \n    Window_Size = " + Window_Size +
+                ", \n    timestamp = " + Integer.toUnsignedString(timestamp) +
+                ", \n    timestamp_Echo = " + Integer.toUnsignedString(timestamp_Echo) +
+                ", \n    connection_Id = " + Integer.toUnsignedString(connection_Id) +
+                ", \n    sack = " + Arrays.toString(Arrays.copyOf(sack, 2 * sack_Count)) +
+                ", \n    data = " + (data == null ? 0 : data.length) +
+                '}';
     }
 }
@@ -0,0 +1,262 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * UDP数据包的二进制编解码器
+ * 报头为定长格式，直接写入 ByteBuffer，取代原先的 Java 对象序列化
+ * 校验和为覆盖报头、选择确认块与数据区的 CRC32C，计算时校验和字段按 0 计算，编码完成后写入
+ *
+ * <pre>
+ *  0               1               2               3
+ * +---------------+---------------+-------------------------------+
+ * |    version    |     flags     |          source_Port          |
+ * +---------------+---------------+-------------------------------+
+ * |       destination_Port        |          Window_Size          |
+ * +-------------------------------+-------------------------------+
+ * |                        sequence_Number                        |
+ * +---------------------------------------------------------------+
+ * |                              ack                              |
+ * +---------------------------------------------------------------+
+ * |                           timestamp                           |
+ * +---------------------------------------------------------------+
+ * |                        timestamp_Echo                         |
+ * +-------------------------------+-------------------------------+
+ * |            length             |           Checksum            |
+ * +-------------------------------+---------------+---------------+
+ * |           Checksum            |  sack_Count   |   reserved    |
+ * +-------------------------------+---------------+---------------+
+ * |                         connection_Id                         |
+ * +---------------------------------------------------------------+
+ * |                   sack 块，每块 8 字节 ...                      |
+ * +---------------------------------------------------------------+
+ * |                            data ...                           |
+ * +---------------------------------------------------------------+
+ * </pre>
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/02 10:12
+ */
+public class UDPCodec {
+    /**
+     * 协议版本号，报头格式变化时递增
+     **/
+    public static final byte VERSION = 5;
+    /**
+     * 定长报头长度 36字节，不含选择确认块
+     **/
+    public static final int HEADER_LENGTH = 36;
+    /**
+     * 每个选择确认块的长度与最多携带的块数
+     **/
+    public static final int SACK_BLOCK_LENGTH = 8;
+    public static final int MAX_SACK_BLOCKS = 8;
+    /**
+     * timestamp 字段在报头中的偏移，发送前直接改写
+     **/
+    public static final int TIMESTAMP_OFFSET = 16;
+    /**
+     * Checksum 字段在报头中的偏移
+     **/
+    public static final int CHECKSUM_OFFSET = 26;
+    /**
+     * connection_Id 字段在报头中的偏移，Server 分发数据报时不必解码整个报头
+     **/
+    public static final int CONNECTION_ID_OFFSET = 32;
+    /**
+     * IPv4 与 IPv6 的 IP 报头加 UDP 报头的长度，链路MTU减去该长度才是可用的数据报长度
+     **/
+    public static final int IPV4_OVERHEAD = 20 + 8;
+    public static final int IPV6_OVERHEAD = 40 + 8;
+    /**
+     * 未经探测时的分块大小，数据报恰好装入以太网 1500 字节的MTU，不会被IP分片
+     **/
+    public static final int DEFAULT_SEGMENT_SIZE = 1500 - IPV4_OVERHEAD - HEADER_LENGTH;
+    /**
+     * 任何路径都能通过的分块大小，取自 IPv6 的最小MTU 1280 字节，探测失败时退回到该大小
+     **/
+    public static final int BASE_SEGMENT_SIZE = 1280 - IPV6_OVERHEAD - HEADER_LENGTH;
+    /**
+     * 单个数据报的最大数据区长度，对应 9000 字节的巨型帧
+     **/
+    public static final int MAX_DATA_LENGTH = 9000 - IPV4_OVERHEAD - HEADER_LENGTH;
+    /**
+     * 单个数据报的最大长度，接收缓冲区按此大小分配
+     **/
+    public static final int MAX_PACKET_LENGTH = HEADER_LENGTH + MAX_DATA_LENGTH;
+
+    private UDPCodec() {
+    }
+
+    /**
+     * 将数据包编码写入缓冲区当前位置
+     *
+     * @param udp    要编码的数据包
+     * @param buffer 目标缓冲区，剩余空间需不小于数据包长度
+     */
+    public static void encode(UDP udp, ByteBuffer buffer) {
+        byte[] data = udp.getData();
+        int dataLength = data == null ? 0 : data.length;
+        int start = buffer.position();
+        encodeHeader(udp, dataLength, buffer);
+        if (dataLength > 0) {
+            buffer.put(data);
+        }
+        // 整个数据报写完后计算校验和并填入
+        int end = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(end).position(start);
+        buffer.putInt(start + CHECKSUM_OFFSET, UDPutils.getChecksum(buffer));
+        buffer.limit(limit).position(end);
+    }
+
+    /**
+     * 只编码报头与选择确认块，数据区由调用方另行提供，用于报头与数据区分开存放的聚集写
+     * 校验和字段写 0，调用方准备好数据区后由 putChecksum 填入
+     *
+     * @param udp        报头字段来源，其数据区不会被写入
+     * @param dataLength 数据区长度
+     * @param buffer     目标缓冲区
+     */
+    public static void encodeHeader(UDP udp, int dataLength, ByteBuffer buffer) {
+        buffer.put(VERSION)
+                .put((byte) udp.getFlags())
+                .putShort((short) udp.getSource_Port())
+                .putShort((short) udp.getDestination_Port())
+                .putShort((short) udp.getWindow_Size())
+                .putInt(udp.getSequence_Number())
+                .putInt(udp.getAck())
+                .putInt(udp.getTimestamp())
+                .putInt(udp.getTimestamp_Echo())
+                .putShort((short) (HEADER_LENGTH + SACK_BLOCK_LENGTH * udp.getSack_Count() + dataLength))
+                .putInt(0)
+                .put((byte) udp.getSack_Count())
+                .put((byte) 0)
+                .putInt(udp.getConnection_Id());
+        for (int i = 0; i < udp.getSack_Count(); i++) {
+            buffer.putInt(udp.getSack_Start(i)).putInt(udp.getSack_End(i));
+        }
+    }
+
+    /**
+     * 将数据包编码为字节数组
+     *
+     * @param udp 要编码的数据包
+     * @return 编码后的字节数组
+     */
+    public static byte[] encode(UDP udp) {
+        byte[] data = udp.getData();
+        byte[] bytes = new byte[HEADER_LENGTH + SACK_BLOCK_LENGTH * udp.getSack_Count() + (data == null ? 0 : data.length)];
+        encode(udp, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * 改写已编码报头中的发送时间戳，重传时不必重新编码整个报头
+     *
+     * @param header    已编码的报头，起始于位置 0
+     * @param timestamp 新的时间戳
+     */
+    public static void putTimestamp(ByteBuffer header, int timestamp) {
+        header.putInt(TIMESTAMP_OFFSET, timestamp);
+    }
+
+    /**
+     * 计算报头与数据区分开存放的数据报的校验和，填入已编码的报头，报头中的任何字段改写后都需重新计算
+     *
+     * @param header 已编码的报头，起始于位置 0
+     * @param data   数据区
+     */
+    public static void putChecksum(ByteBuffer header, ByteBuffer data) {
+        header.putInt(CHECKSUM_OFFSET, UDPutils.getChecksum(header, data));
+    }
+
+    /**
+     * 从缓冲区当前位置解码一个数据包
+     *
+     * @param buffer 源缓冲区
+     * @return 解码成功返回数据包，版本不符或长度不合法返回 null
+     */
+    public static UDP decode(ByteBuffer buffer) {
+        return decode(buffer, new UDP());
+    }
+
+    /**
+     * 从缓冲区当前位置解码一个数据包，写入调用方复用的数据包对象，避免每次接收都创建新对象
+     *
+     * @param buffer 源缓冲区
+     * @param udp    用于保存解码结果的数据包
+     * @return 解码成功返回传入的数据包，版本不符或长度不合法返回 null
+     */
+    public static UDP decode(ByteBuffer buffer, UDP udp) {
+        if (decodeHeader(buffer, udp) == null) {
+            return null;
+        }
+        if (buffer.hasRemaining()) {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            udp.setData(data);
+        } else {
+            udp.setData(null);
+        }
+        return udp;
+    }
+
+    /**
+     * 只解码报头，不拷贝数据区
+     * 解码成功后缓冲区的 position 指向数据区开头，limit 指向数据区末尾，调用方可直接读取数据区
+     *
+     * @param buffer 源缓冲区
+     * @param udp    用于保存报头字段的数据包，其数据区置为 null
+     * @return 解码成功返回传入的数据包，版本不符或长度不合法返回 null
+     */
+    public static UDP decodeHeader(ByteBuffer buffer, UDP udp) {
+        try {
+            if (buffer.get() != VERSION) {
+                return null;
+            }
+            udp.setFlags(buffer.get() & 0xFF);
+            udp.setSource_Port(buffer.getShort() & 0xFFFF);
+            udp.setDestination_Port(buffer.getShort() & 0xFFFF);
+            udp.setWindow_Size(buffer.getShort() & 0xFFFF);
+            udp.setSequence_Number(buffer.getInt());
+            udp.setAck(buffer.getInt());
+            udp.setTimestamp(buffer.getInt());
+            udp.setTimestamp_Echo(buffer.getInt());
+            int length = buffer.getShort() & 0xFFFF;
+            udp.setLength(length);
+            udp.setChecksum(buffer.getInt());
+            int sackCount = buffer.get() & 0xFF;
+            buffer.get();
+            udp.setConnection_Id(buffer.getInt());
+            if (sackCount > MAX_SACK_BLOCKS) {
+                return null;
+            }
+            udp.clearSack();
+            for (int i = 0; i < sackCount; i++) {
+                udp.addSack(buffer.getInt(), buffer.getInt());
+            }
+            udp.setData(null);
+            int dataLength = length - HEADER_LENGTH - SACK_BLOCK_LENGTH * sackCount;
+            if (dataLength < 0 || dataLength > buffer.remaining()) {
+                return null;
+            }
+            buffer.limit(buffer.position() + dataLength);
+            return udp;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 从字节数组中解码一个数据包
+     *
+     * @param bytes  源字节数组
+     * @param offset 起始位置
+     * @param length 有效长度
+     * @return 解码成功返回数据包，反之返回 null
+     */
+    public static UDP decode(byte[] bytes, int offset, int length) {
+        return decode(ByteBuffer.wrap(bytes, offset, length));
+    }
+}
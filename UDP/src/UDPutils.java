@@ -1,12 +1,8 @@
-import java.io.*;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
+import java.util.zip.CRC32C;
 
 /**
  * UDP工具类
@@ -16,76 +12,85 @@ import java.util.zip.Checksum;
  * @date : 2021/11/25 16:35
  */
 public class UDPutils {
+    /**
+     * 是否逐个数据报打印收发日志，由系统属性 rudp.debug 开启
+     * 关闭时发送与接收文件只打印丢包、超时等事件与结束时的汇总，热路径上不再为每个数据报拼接字符串并同步写 stdout
+     **/
+    public static final boolean DEBUG = Boolean.getBoolean("rudp.debug");
+    /**
+     * 每个线程复用一个 CRC32C，JDK 在支持的 CPU 上以硬件指令计算，计算校验和不再创建对象
+     **/
+    private static final ThreadLocal<CRC32C> CRC = ThreadLocal.withInitial(CRC32C::new);
+    /**
+     * 计算校验和时代替校验和字段本身的 4 个 0 字节
+     **/
+    private static final byte[] ZERO_CHECKSUM = new byte[Integer.BYTES];
 
     /**
-     * 将类转换为字节流
+     * 计算已编码数据报的校验和，覆盖报头、选择确认块与数据区，校验和字段按 0 计算
+     * 直接从缓冲区计算，不改变缓冲区的位置，直接缓冲区无需拷贝到堆内
      *
-     * @param data 需要转换的类
-     * @return 返回转换成功的字节流
-     * @throws IOException 序列化异常
+     * @param packet 已编码的数据报，从 position 到 limit
+     * @return 返回32位校验和
      */
-    public static byte[] objectToByte(UDP data) throws IOException {
-        // object to byte
-        byte[] bytes = null;
-        try {
-            ByteArrayOutputStream otb = new ByteArrayOutputStream();
-            ObjectOutputStream objectToByte = new ObjectOutputStream(otb);
-            objectToByte.writeObject(data);
-            bytes = otb.toByteArray();
-
-            objectToByte.close();
-            otb.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return bytes;
+    public static int getChecksum(ByteBuffer packet) {
+        CRC32C crc = CRC.get();
+        crc.reset();
+        updateHeader(crc, packet);
+        return (int) crc.getValue();
     }
 
     /**
-     * 将字节流数据转换为类
+     * 计算报头与数据区分开存放的数据报的校验和，用于聚集写
      *
-     * @param data 需要转换的字节流
-     * @return 返回转换成功的类
-     * @throws ClassNotFoundException 反序列化异常
+     * @param header 已编码的报头与选择确认块，从 position 到 limit
+     * @param data   数据区，从 position 到 limit
+     * @return 返回32位校验和
      */
-    public static Object byteToObject(byte[] data) throws ClassNotFoundException {
-        // byte to object
-        Object obj = null;
-        try {
-            ByteArrayInputStream bi = new ByteArrayInputStream(data);
-            ObjectInputStream oi = new ObjectInputStream(bi);
-
-            obj = oi.readObject();
-            bi.close();
-            oi.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return obj;
+    public static int getChecksum(ByteBuffer header, ByteBuffer data) {
+        CRC32C crc = CRC.get();
+        crc.reset();
+        updateHeader(crc, header);
+        int position = data.position();
+        crc.update(data);
+        data.position(position);
+        return (int) crc.getValue();
     }
 
     /**
-     * CRC32计算传入字节数组的校验和
+     * 利用校验和对接收到的数据报进行校验，只需比较一次整数
      *
-     * @param bytes 目标字节数组
-     * @return 返回校验和的字节流
+     * @param packet 接收到的数据报，从 position 到 limit，不改变缓冲区的位置
+     * @return 相同返回true 不相同或不足一个报头返回false
      */
-    public static byte[] getChecksum(byte[] bytes) {
-        Checksum crc32 = new CRC32();
-        crc32.update(bytes, 0, bytes.length);
-        return Long.toString(crc32.getValue()).getBytes();
+    public static boolean compareChecksum(ByteBuffer packet) {
+        return packet.remaining() >= UDPCodec.HEADER_LENGTH
+                && packet.getInt(packet.position() + UDPCodec.CHECKSUM_OFFSET) == getChecksum(packet);
     }
 
     /**
-     * 利用校验和对数据报进行校验
+     * 校验并解码接收到的数据报，校验和出错时不解码，其中的序号、窗口等字段均不可信
      *
-     * @param oldChecksum 数据报中的校验和
-     * @param data        该服务根据数据区新生成的校验和
-     * @return 相同返回true 不相同返回false
+     * @param packet 接收到的数据报，从 position 到 limit
+     * @return 解码后的数据包，校验和出错、版本不符或长度不合法返回 null
      */
-    public static boolean compareChecksum(byte[] oldChecksum, byte[] data) {
-        byte[] newChecksum = getChecksum(data);
-        return Arrays.equals(oldChecksum, newChecksum);
+    public static UDP decodeVerified(ByteBuffer packet) {
+        return compareChecksum(packet) ? UDPCodec.decode(packet) : null;
+    }
+
+    /**
+     * 将缓冲区计入校验和，其中的校验和字段以 0 代替，计算后恢复缓冲区的位置
+     */
+    private static void updateHeader(CRC32C crc, ByteBuffer buffer) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        int field = position + UDPCodec.CHECKSUM_OFFSET;
+        buffer.limit(field);
+        crc.update(buffer);
+        crc.update(ZERO_CHECKSUM, 0, ZERO_CHECKSUM.length);
+        buffer.limit(limit).position(field + Integer.BYTES);
+        crc.update(buffer);
+        buffer.position(position);
     }
 
     /**
@@ -149,40 +154,36 @@ public class UDPutils {
     }
 
     /**
-     * Client 发送文件后等待ACK
+     * 计算文件按分块大小切分后的分块个数
      *
-     * @param socket socket
-     * @param seqNum 序列号
-     * @param state  状态
-     * @return 返回状态
-     * @throws IOException            接收数据报出错
-     * @throws ClassNotFoundException 接收数据报出错
+     * @param length      文件大小，小于 0 时按 0 计算
+     * @param segmentSize 分块大小
+     * @return 分块个数，最后一个分块可以不满
      */
-    public static int receiveAck(DatagramSocket socket, int seqNum, String state) throws IOException, ClassNotFoundException {
-        // 接收应答ACK
-        byte[] rec = new byte[512];
-        DatagramPacket receivePacket = new DatagramPacket(rec, 0, rec.length);
-        UDP udp = null;
-        try {
-            // 定时10毫秒
-            socket.setSoTimeout(10);
-            socket.receive(receivePacket);
-        } catch (IOException e) {
-            System.out.println(state + "  Seq = " + seqNum + " 数据报丢失，重新发送分块");
-            return 0;
-        }
-        // 对ACK进行判断
-        if (UDPutils.byteToObject(rec) != null) {
-            udp = (UDP) UDPutils.byteToObject(rec);
-        }
-        assert udp != null;
-        int ack = Integer.parseInt(udp.getAck());
-        if ("1".equals(udp.getACK()) && (seqNum + 1) == ack) {
-            System.out.println(state + "  接收ACK ack = " + ack);
-            return 1;
-        }
-        return 0;
+    public static long segmentCount(long length, int segmentSize) {
+        return (Math.max(0, length) + segmentSize - 1) / segmentSize;
     }
 
-}
+    /**
+     * 将long转换为8字节数组，用于在握手数据区中携带文件大小等参数
+     *
+     * @param value 要转换的值
+     * @return 大端序的8字节数组
+     */
+    public static byte[] longToBytes(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+    }
 
+    /**
+     * 将8字节数组转换为long
+     *
+     * @param bytes 大端序字节数组
+     * @return 数组不足8字节返回 -1，反之返回转换后的值
+     */
+    public static long bytesToLong(byte[] bytes) {
+        if (bytes == null || bytes.length < Long.BYTES) {
+            return -1;
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+}
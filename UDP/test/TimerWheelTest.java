@@ -0,0 +1,104 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 时间轮测试，tick 为 1000，共 8 个槽，一轮为 8000
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/14 10:45
+ */
+class TimerWheelTest {
+    private final TimerWheel<TimerWheel.Timer> wheel = new TimerWheel<>(1000, 8, 0);
+    private final ArrayDeque<TimerWheel.Timer> expired = new ArrayDeque<>();
+
+    @Test
+    void expiresAtEndOfDeadlineTick() {
+        TimerWheel.Timer timer = new TimerWheel.Timer();
+        wheel.schedule(timer, 2500);
+        assertTrue(timer.isScheduled());
+        assertEquals(2500, timer.getDeadline());
+
+        assertEquals(0, wheel.expire(2999, expired));
+        assertTrue(expired.isEmpty());
+        assertEquals(1, wheel.expire(3000, expired));
+        assertSame(timer, expired.poll());
+        assertFalse(timer.isScheduled());
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    void deadlineBeyondWheelWaitsForItsRound() {
+        TimerWheel.Timer near = new TimerWheel.Timer();
+        TimerWheel.Timer far = new TimerWheel.Timer();
+        // 与 near 落在同一个槽，但要多转两轮
+        wheel.schedule(near, 4500);
+        wheel.schedule(far, 20500);
+
+        assertEquals(1, wheel.expire(5000, expired));
+        assertSame(near, expired.poll());
+        assertEquals(0, wheel.expire(13000, expired));
+        assertEquals(0, wheel.expire(20999, expired));
+        assertTrue(far.isScheduled());
+        assertEquals(1, wheel.expire(21000, expired));
+        assertSame(far, expired.poll());
+    }
+
+    @Test
+    void pastDeadlineExpiresOnNextAdvance() {
+        wheel.expire(10000, expired);
+        TimerWheel.Timer timer = new TimerWheel.Timer();
+        wheel.schedule(timer, 3000);
+
+        assertEquals(1, wheel.expire(11000, expired));
+        assertSame(timer, expired.poll());
+    }
+
+    @Test
+    void cancelAndReschedule() {
+        TimerWheel.Timer first = new TimerWheel.Timer();
+        TimerWheel.Timer second = new TimerWheel.Timer();
+        TimerWheel.Timer third = new TimerWheel.Timer();
+        wheel.schedule(first, 1500);
+        wheel.schedule(second, 1500);
+        wheel.schedule(third, 1500);
+        assertEquals(3, wheel.size());
+
+        // 取消槽中间的节点，链表前后仍然相连
+        wheel.cancel(second);
+        assertFalse(second.isScheduled());
+        wheel.cancel(second);
+        assertEquals(2, wheel.size());
+
+        // 重新调度会先从原来的槽中移除
+        wheel.schedule(third, 5500);
+        assertEquals(2, wheel.size());
+
+        assertEquals(1, wheel.expire(2000, expired));
+        assertSame(first, expired.poll());
+        assertEquals(1, wheel.expire(6000, expired));
+        assertSame(third, expired.poll());
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    void nextExpiryIsFirstOccupiedTick() {
+        assertEquals(Long.MAX_VALUE, wheel.nextExpiry());
+
+        TimerWheel.Timer timer = new TimerWheel.Timer();
+        wheel.schedule(timer, 20500);
+        // 槽中的定时器还要再转两轮，提前醒来推进时间轮即可
+        assertEquals(5000, wheel.nextExpiry());
+        wheel.expire(5000, expired);
+        assertEquals(13000, wheel.nextExpiry());
+
+        wheel.schedule(new TimerWheel.Timer(), 6200);
+        assertEquals(7000, wheel.nextExpiry());
+    }
+}
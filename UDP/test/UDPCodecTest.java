@@ -0,0 +1,161 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 编解码与校验和测试
+ *
+ * @author : LiuYi
+ * @version : 2.0
+ * @date : 2021/12/14 10:20
+ */
+class UDPCodecTest {
+    private static final byte[] DATA = "reliable udp segment".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void roundTripKeepsEveryField() {
+        UDP udp = sample();
+        ByteBuffer buffer = encode(udp);
+
+        UDP decoded = UDPutils.decodeVerified(buffer);
+        assertNotNull(decoded);
+        assertEquals(UDP.FLAG_ACK | UDP.FLAG_EOF, decoded.getFlags());
+        assertEquals(40000, decoded.getSource_Port());
+        assertEquals(8080, decoded.getDestination_Port());
+        assertEquals(Integer.MAX_VALUE, decoded.getSequence_Number());
+        assertEquals(Integer.MIN_VALUE, decoded.getAck());
+        assertEquals(0xFFFF, decoded.getWindow_Size());
+        assertEquals(123456, decoded.getTimestamp());
+        assertEquals(-7, decoded.getTimestamp_Echo());
+        assertEquals(0x12345678, decoded.getConnection_Id());
+        assertEquals(2, decoded.getSack_Count());
+        assertEquals(Integer.MAX_VALUE - 3, decoded.getSack_Start(0));
+        assertEquals(Integer.MIN_VALUE + 2, decoded.getSack_End(0));
+        assertEquals(10, decoded.getSack_Start(1));
+        assertEquals(20, decoded.getSack_End(1));
+        assertEquals(UDPCodec.HEADER_LENGTH + 2 * UDPCodec.SACK_BLOCK_LENGTH + DATA.length, decoded.getLength());
+        assertArrayEquals(DATA, decoded.getData());
+    }
+
+    @Test
+    void byteArrayEncodingMatchesBufferEncoding() {
+        UDP udp = sample();
+        ByteBuffer buffer = encode(udp);
+        byte[] bytes = UDPCodec.encode(udp);
+
+        assertEquals(buffer.remaining(), bytes.length);
+        assertEquals(buffer, ByteBuffer.wrap(bytes));
+        assertNotNull(UDPCodec.decode(bytes, 0, bytes.length));
+    }
+
+    @Test
+    void decodeHeaderLeavesPayloadInPlace() {
+        ByteBuffer buffer = encode(sample());
+        UDP udp = new UDP();
+
+        assertSame(udp, UDPCodec.decodeHeader(buffer, udp));
+        assertNull(udp.getData());
+        assertEquals(DATA.length, buffer.remaining());
+        byte[] payload = new byte[buffer.remaining()];
+        buffer.get(payload);
+        assertArrayEquals(DATA, payload);
+    }
+
+    @Test
+    void checksumDetectsCorruption() {
+        ByteBuffer buffer = encode(sample());
+        assertTrue(UDPutils.compareChecksum(buffer));
+        assertEquals(0, buffer.position());
+
+        // 报头、选择确认块与数据区中任意一位出错都能发现
+        int[] offsets = {1, UDPCodec.TIMESTAMP_OFFSET, UDPCodec.HEADER_LENGTH + 3, buffer.limit() - 1};
+        for (int offset : offsets) {
+            buffer.put(offset, (byte) (buffer.get(offset) ^ 0x10));
+            assertFalse(UDPutils.compareChecksum(buffer), "offset " + offset);
+            assertNull(UDPutils.decodeVerified(buffer), "offset " + offset);
+            buffer.put(offset, (byte) (buffer.get(offset) ^ 0x10));
+        }
+        assertTrue(UDPutils.compareChecksum(buffer));
+    }
+
+    @Test
+    void rejectsTruncatedPacket() {
+        ByteBuffer buffer = encode(sample());
+        buffer.limit(UDPCodec.HEADER_LENGTH - 1);
+        assertFalse(UDPutils.compareChecksum(buffer));
+
+        // 长度字段超出实际收到的字节数
+        buffer = encode(sample());
+        buffer.limit(buffer.limit() - 1);
+        assertNull(UDPCodec.decode(buffer));
+    }
+
+    @Test
+    void gatherChecksumMatchesContiguousPacket() {
+        UDP udp = sample();
+        udp.clearSack();
+        byte[] contiguous = UDPCodec.encode(udp);
+
+        ByteBuffer header = ByteBuffer.allocate(UDPCodec.HEADER_LENGTH);
+        UDPCodec.encodeHeader(udp, DATA.length, header);
+        header.flip();
+        ByteBuffer data = ByteBuffer.allocateDirect(DATA.length);
+        data.put(DATA).flip();
+        UDPCodec.putChecksum(header, data);
+
+        assertEquals(0, header.position());
+        assertEquals(0, data.position());
+        ByteBuffer joined = ByteBuffer.allocate(header.remaining() + data.remaining());
+        joined.put(header).put(data).flip();
+        assertEquals(ByteBuffer.wrap(contiguous), joined);
+        assertTrue(UDPutils.compareChecksum(joined));
+    }
+
+    @Test
+    void rewrittenTimestampNeedsNewChecksum() {
+        UDP udp = sample();
+        udp.clearSack();
+        ByteBuffer header = ByteBuffer.allocate(UDPCodec.HEADER_LENGTH);
+        UDPCodec.encodeHeader(udp, DATA.length, header);
+        header.flip();
+        ByteBuffer data = ByteBuffer.wrap(DATA);
+        UDPCodec.putChecksum(header, data);
+
+        UDPCodec.putTimestamp(header, 654321);
+        ByteBuffer joined = ByteBuffer.allocate(header.remaining() + data.remaining());
+        joined.put(header.duplicate()).put(data.duplicate()).flip();
+        assertFalse(UDPutils.compareChecksum(joined));
+
+        UDPCodec.putChecksum(header, data);
+        joined.clear();
+        joined.put(header.duplicate()).put(data.duplicate()).flip();
+        assertTrue(UDPutils.compareChecksum(joined));
+        assertEquals(654321, UDPCodec.decode(joined).getTimestamp());
+    }
+
+    private static UDP sample() {
+        UDP udp = new UDP(40000, 8080, Integer.MAX_VALUE, Integer.MIN_VALUE, UDP.FLAG_ACK | UDP.FLAG_EOF, 0xFFFF, DATA);
+        udp.setTimestamp(123456);
+        udp.setTimestamp_Echo(-7);
+        udp.setConnection_Id(0x12345678);
+        udp.addSack(Integer.MAX_VALUE - 3, Integer.MIN_VALUE + 2);
+        udp.addSack(10, 20);
+        return udp;
+    }
+
+    private static ByteBuffer encode(UDP udp) {
+        ByteBuffer buffer = ByteBuffer.allocate(UDPCodec.MAX_PACKET_LENGTH);
+        UDPCodec.encode(udp, buffer);
+        buffer.flip();
+        return buffer;
+    }
+}